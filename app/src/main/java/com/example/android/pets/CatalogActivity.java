@@ -10,17 +10,24 @@ import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.view.ViewTreeObserver;
 import android.widget.Toast;
 
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetRepository;
+import com.example.android.pets.data.PetStartupMetrics;
 
 // displays list of pets that were entered and stored in the app
 public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
@@ -28,8 +35,26 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     // integer ID of cursor loader
     private static final int PET_LOADER = 0;
 
-    // reference to cursor adapter that populates list view in activity_catalog
-    PetCursorAdapter mAdapter;
+    // most relevant search results shown while the user types
+    private static final int SEARCH_LIMIT = 200;
+
+    // text currently in the search box, empty when the whole catalog is shown
+    private String mSearchText = "";
+
+    // queues inserts and deletes off the main thread
+    private PetRepository mRepository;
+
+    // reference to adapter that populates the recycler view in activity_catalog
+    PetListAdapter mAdapter;
+
+    // shown instead of the list while the adapter has no rows
+    private View mEmptyView;
+
+    // the list, watched until the first page of the catalog is drawn
+    private RecyclerView mRecyclerView;
+
+    // true once the first page of the catalog was drawn, reported only once per activity
+    private boolean mFirstPageReported;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -40,6 +65,9 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // set the view as activity_catalog
         setContentView(R.layout.activity_catalog);
 
+        // all writes go through the repository so they never block the UI
+        mRepository = new PetRepository(this);
+
         // setup FAB to open EditorActivity
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setOnClickListener(new View.OnClickListener() {
@@ -58,24 +86,18 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // initialize loader
         getLoaderManager().initLoader(PET_LOADER, null, this);
 
-        // get reference to list view in activity_catalog
-        ListView listView = (ListView) findViewById(R.id.list_view);
-
-        // get view reference for empty state and set it on the list view
-        View emptyView = findViewById(R.id.empty_view);
-        listView.setEmptyView(emptyView);
-
-        // create new cursor adapter and set it on the list view
-        // the cursor input parameter is null because a loader supplies cursors to the adapter
-        mAdapter = new PetCursorAdapter(this, null);
-        listView.setAdapter(mAdapter);
+        // get reference to recycler view in activity_catalog
+        RecyclerView recyclerView = (RecyclerView) findViewById(R.id.list_view);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        mRecyclerView = recyclerView;
 
-        // setup click listener for items in the list view
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // create new adapter and set it on the recycler view
+        // the loader supplies the first page, the adapter fetches the following pages as the list scrolls
+        // clicking an item opens the editor activity in "edit mode" for that pet
+        mAdapter = new PetListAdapter(this, new PetListAdapter.OnPetClickListener() {
 
-            // clicking an item in the list view opens the editor activity in "edit mode" for that pet
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onPetClick(long id) {
 
                 // explicit intent to open editor activity
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
@@ -90,7 +112,46 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
 
         });
+        recyclerView.setAdapter(mAdapter);
 
+        // the loader's cursor only reaches the list once the adapter has diffed it in the background,
+        // so the startup timing waits for that instead of for the cursor
+        mAdapter.setOnFirstPageListener(new PetListAdapter.OnFirstPageListener() {
+
+            @Override
+            public void onFirstPageShown() {
+                reportFirstPageWhenDrawn();
+            }
+
+        });
+
+        // RecyclerView has no empty view of its own, so follow the adapter's row count
+        mEmptyView = findViewById(R.id.empty_view);
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+        });
+        updateEmptyView();
+
+    }
+
+    // show the empty state only while there is nothing to list
+    private void updateEmptyView() {
+        mEmptyView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
     // insert dummy data for a single pet (new row in sqlite table)
@@ -105,9 +166,8 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         values.put(PetEntry.COLUMN_PETS_GENDER, PetEntry.GENDER_MALE);
         values.put(PetEntry.COLUMN_PETS_WEIGHT, 7);
 
-        // perform an insert on the provider using a content resolver
-        // the correct content URI is defined as a constant in PetContract
-        getContentResolver().insert(PetEntry.CONTENT_URI, values);
+        // queue an insert on the provider, the loader picks up the new row so no callback is needed
+        mRepository.insertPet(values, null);
 
     }
 
@@ -116,6 +176,28 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
         // inflate the menu options from layout menu_catalog
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // filter the catalog as the user types in the search box
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(menu.findItem(R.id.action_search));
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+
+            // results are already shown while typing, so submitting only hides the keyboard
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            // restart the loader with the new text, the loader drops results for the previous text
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mSearchText = newText == null ? "" : newText.trim();
+                getLoaderManager().restartLoader(PET_LOADER, null, CatalogActivity.this);
+                return true;
+            }
+
+        });
+
         return true;
     }
 
@@ -180,49 +262,95 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     // helper method called when delete button is pressed in the delete confirmation dialog
     private void deleteAllPets() {
 
-        // perform a delete on the provider using a content resolver
-        int deletedRows = getContentResolver().delete(PetEntry.CONTENT_URI, null, null);
+        // queue a delete of the whole table on the provider, the result arrives back on the main thread
+        mRepository.deletePets(PetEntry.CONTENT_URI, new PetRepository.WriteCallback() {
+            @Override
+            public void onWriteComplete(int deletedRows) {
 
-        // toast to display success (or failure) of delete action
-        String toastMessage;
+                // toast to display success (or failure) of delete action
+                String toastMessage;
 
-        // row delete failed and therefore the number of deleted rows is zero
-        if (deletedRows == 0) {
-            toastMessage = getString(R.string.editor_delete_pet_failed);
+                // row delete failed and therefore the number of deleted rows is zero
+                if (deletedRows == 0) {
+                    toastMessage = getString(R.string.editor_delete_pet_failed);
 
-            // row delete successful
-        } else {
-            toastMessage = getString(R.string.editor_delete_pet_successful);
-        }
+                    // row delete successful
+                } else {
+                    toastMessage = getString(R.string.editor_delete_pet_successful);
+                }
 
-        // display toast message
-        Toast toast = Toast.makeText(getApplicationContext(), toastMessage, Toast.LENGTH_SHORT);
-        toast.show();
+                // display toast message
+                Toast toast = Toast.makeText(getApplicationContext(), toastMessage, Toast.LENGTH_SHORT);
+                toast.show();
+            }
+        });
 
     }
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
 
-        // define projection (column names) for query
-        String[] projection = {PetEntry._ID, PetEntry.COLUMN_PETS_NAME, PetEntry.COLUMN_PETS_BREED};
+        // while searching, load the most relevant matches instead of the first page
+        if (isSearching()) {
+            Uri searchUri = PetEntry.buildSearchUri(mSearchText, SEARCH_LIMIT);
+            return new CursorLoader(this, searchUri, PetListAdapter.PROJECTION, null, null, null);
+        }
+
+        // only the first page is loaded here, starting before the smallest possible _ID
+        Uri firstPageUri = PetEntry.buildPageUri(0, PetListAdapter.PAGE_SIZE);
 
         // CursorLoader requires that the column projection includes the _ID column
-        return new CursorLoader(this, PetEntry.CONTENT_URI, projection, null, null, null);
+        return new CursorLoader(this, firstPageUri, PetListAdapter.PROJECTION, null, null, null);
 
     }
 
     // called by the system when a new cursor is finished being created by the loader
-    // refresh the adapter with this new cursor
+    // restart paging in the adapter from this new first page, or show the search results
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        mAdapter.swapCursor(cursor);
+        if (isSearching()) {
+            mAdapter.swapResults(cursor);
+        } else {
+            mAdapter.swapFirstPage(cursor);
+        }
+    }
+
+    // report the cold start timing once the frame showing the rows of the first page is about to be drawn
+    private void reportFirstPageWhenDrawn() {
+
+        if (mFirstPageReported) {
+            return;
+        }
+        mFirstPageReported = true;
+
+        mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+
+            @Override
+            public boolean onPreDraw() {
+                mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+
+                // only the first catalog of the process counts, later activities are not a cold start
+                PetStartupMetrics.getInstance().catalogDrawn();
+
+                // lets the system log the same point as "Fully drawn" in its launch timings
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    reportFullyDrawn();
+                }
+                return true;
+            }
+
+        });
+    }
+
+    // true if the user has typed something in the search box
+    private boolean isSearching() {
+        return !TextUtils.isEmpty(mSearchText);
     }
 
     // called when a previously created loader is being reset
     // therefore the cursor data is no longer valid and the adapter is cleared
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        mAdapter.swapCursor(null);
+        mAdapter.swapFirstPage(null);
     }
 }
@@ -26,7 +26,10 @@ import android.widget.Toast;
 import java.util.Locale;
 
 // native packages
+import com.example.android.pets.data.Pet;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetMapper;
+import com.example.android.pets.data.PetRepository;
 
 // user creates a new pet or edits an existing one
 public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
@@ -55,6 +58,15 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     // flag for unsaved user changes when navigating away from activity
     private boolean mPetHasChanged;
 
+    // queues inserts, updates and deletes off the main thread
+    private PetRepository mRepository;
+
+    // true while a save or delete is queued, repeated taps are ignored until it completes
+    private boolean mWriteInProgress;
+
+    // version of the pet shown in the fields, an update is rejected if the pet has changed since
+    private long mLoadedVersion;
+
     // touch listener is set on a view, a touch implies the field has changed
     private View.OnTouchListener mTouchListener = new View.OnTouchListener() {
         @Override
@@ -73,6 +85,9 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         // set layout to activity_editor
         setContentView(R.layout.activity_editor);
 
+        // all writes go through the repository so they never block the UI
+        mRepository = new PetRepository(this);
+
         // get the intent which started this activity, always from catalog activity
         Intent intent = getIntent();
 
@@ -201,33 +216,47 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     // helper method called when delete button is pressed in the delete confirmation dialog
     private void deletePet() {
 
-        // if the URI exists, then the activity is in "edit mode" for an existing single pet
         // if the URI is null, the FAB button was pressed and the activity is in "insert mode"
-        if (mSelectedPetURI != null) {
+        // there is nothing to delete, so exit activity and return to catalog activity
+        if (mSelectedPetURI == null) {
+            finish();
+            return;
+        }
 
-            // perform a delete on the provider using a content resolver
-            int deletedRows = getContentResolver().delete(mSelectedPetURI, null, null);
+        // a save or delete is already on its way
+        if (mWriteInProgress) {
+            return;
+        }
+        mWriteInProgress = true;
 
-            // toast to display success (or failure) of delete action
-            String toastMessage;
+        // the URI exists, so the activity is in "edit mode" for an existing single pet
+        // queue a delete on the provider, the result arrives back on the main thread
+        mRepository.deletePets(mSelectedPetURI, new PetRepository.WriteCallback() {
+            @Override
+            public void onWriteComplete(int deletedRows) {
 
-            // row delete failed and therefore the number of deleted rows is zero
-            if (deletedRows == 0) {
-                toastMessage = getString(R.string.editor_delete_pet_failed);
+                mWriteInProgress = false;
 
-            // row delete successful
-            } else {
-                toastMessage = getString(R.string.editor_delete_pet_successful);
-            }
+                // toast to display success (or failure) of delete action
+                String toastMessage;
 
-            // display toast message
-            Toast toast = Toast.makeText(getApplicationContext(), toastMessage, Toast.LENGTH_SHORT);
-            toast.show();
+                // row delete failed and therefore the number of deleted rows is zero
+                if (deletedRows == 0) {
+                    toastMessage = getString(R.string.editor_delete_pet_failed);
 
-        }
+                // row delete successful
+                } else {
+                    toastMessage = getString(R.string.editor_delete_pet_successful);
+                }
 
-        // exit activity and return to catalog activity
-        finish();
+                // display toast message
+                Toast toast = Toast.makeText(getApplicationContext(), toastMessage, Toast.LENGTH_SHORT);
+                toast.show();
+
+                // exit activity and return to catalog activity
+                finish();
+            }
+        });
 
     }
 
@@ -294,8 +323,14 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         });
     }
 
+    // queue the insert or update for the pet in the editor, the activity finishes once it completes
     private void savePet() {
 
+        // a save or delete is already on its way
+        if (mWriteInProgress) {
+            return;
+        }
+
         // get raw state of user fields as strings
         String nameString = mNameEditText.getText().toString().trim();
         String breedString = mBreedEditText.getText().toString().trim();
@@ -305,6 +340,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         // if all fields are blank assume the user made a mistake and exit without saving
         if (TextUtils.isEmpty(nameString) && TextUtils.isEmpty(breedString) &&
                 mGender == PetEntry.GENDER_UNKNOWN && TextUtils.isEmpty(weightString)) {
+            finish();
             return;
         }
 
@@ -325,45 +361,72 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         values.put(PetEntry.COLUMN_PETS_GENDER, mGender);
         values.put(PetEntry.COLUMN_PETS_WEIGHT, weightInt);
 
-        // toast to display success (or failure) of save action
-        String toastMessage;
+        mWriteInProgress = true;
 
         // if the URI is null, the FAB button was pressed and the activity is in "insert mode"
         if (mSelectedPetURI == null) {
 
-            // perform an insert on the provider using a content resolver
-            Uri newPetURI = getContentResolver().insert(PetEntry.CONTENT_URI, values);
-
-            // row insert failed and therefore returned insert uri is null
-            if (newPetURI == null) {
-                toastMessage = getString(R.string.pet_saved_error);
+            // queue an insert on the provider, the result arrives back on the main thread
+            mRepository.insertPet(values, new PetRepository.InsertCallback() {
+                @Override
+                public void onInsertComplete(Uri newPetURI) {
 
-            // row insert successful
-            } else {
-                toastMessage = getString(R.string.pet_saved);
-            }
+                    // row insert failed and therefore returned insert uri is null
+                    onSaveComplete(newPetURI != null);
+                }
+            });
 
         // if the URI exists, then the activity is in "edit mode" for an existing single pet
         } else {
 
-            // perform an insert on the provider using a content resolver
-            int updatedRow = getContentResolver().update(mSelectedPetURI, values, null, null);
-
-            // row insert failed and therefore the number of affected rows is zero
-            if (updatedRow == 0) {
-                toastMessage = getString(R.string.pet_saved_error);
+            // queue an update on the provider, the result arrives back on the main thread
+            // the update only applies to the version of the pet the user has been editing
+            Uri versionedUri = PetEntry.buildVersionedUri(mSelectedPetURI, mLoadedVersion);
+            mRepository.updatePet(versionedUri, values, new PetRepository.WriteCallback() {
+                @Override
+                public void onWriteComplete(int updatedRow) {
+
+                    // another writer changed the pet first, the loader picks up its new values
+                    if (updatedRow == PetRepository.VERSION_CONFLICT) {
+                        onSaveConflict();
+                        return;
+                    }
 
-            // row insert successful
-            } else {
-                toastMessage = getString(R.string.pet_saved);
-            }
+                    // row update failed and therefore the number of affected rows is zero
+                    onSaveComplete(updatedRow != 0);
+                }
+            });
 
         }
 
+    }
+
+    // report the result of a save and exit the editor
+    // called when an update was rejected because the pet changed since it was loaded
+    // the editor stays open so the user can review the current values and save again
+    private void onSaveConflict() {
+
+        mWriteInProgress = false;
+
+        Toast toast = Toast.makeText(getApplicationContext(), R.string.pet_saved_conflict, Toast.LENGTH_LONG);
+        toast.show();
+
+    }
+
+    private void onSaveComplete(boolean saved) {
+
+        mWriteInProgress = false;
+
+        // toast to display success (or failure) of save action
+        String toastMessage = getString(saved ? R.string.pet_saved : R.string.pet_saved_error);
+
         // display toast message
         Toast toast = Toast.makeText(getApplicationContext(), toastMessage, Toast.LENGTH_SHORT);
         toast.show();
 
+        // exit activity and return to catalog activity
+        finish();
+
     }
 
     // overflow menu
@@ -386,10 +449,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             case R.id.action_save:
 
                 // helper method to save existing pet data in sqlite database
+                // the activity finishes once the save completes
                 savePet();
-
-                // exit activity and return to catalog activity
-                finish();
                 return true;
 
             // menu option "Delete"
@@ -431,11 +492,9 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
 
-        // define projection (column names) for query
-        String[] projection = {PetEntry._ID, PetEntry.COLUMN_PETS_NAME, PetEntry.COLUMN_PETS_BREED, PetEntry.COLUMN_PETS_GENDER, PetEntry.COLUMN_PETS_WEIGHT};
-
+        // every column of the pet, so the row can be mapped to a Pet
         // CursorLoader requires that the column projection includes the _ID column
-        return new CursorLoader(this, mSelectedPetURI, projection, null, null, null);
+        return new CursorLoader(this, mSelectedPetURI, PetMapper.COLUMNS, null, null, null);
 
     }
 
@@ -451,23 +510,17 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         // move cursor to the only row which is first position
         if (cursor.moveToFirst()) {
 
-            // get column indices
-            int nameIndex = cursor.getColumnIndex(PetEntry.COLUMN_PETS_NAME);
-            int breedIndex = cursor.getColumnIndex(PetEntry.COLUMN_PETS_BREED);
-            int weightIndex = cursor.getColumnIndex(PetEntry.COLUMN_PETS_WEIGHT);
-            int genderIndex = cursor.getColumnIndex(PetEntry.COLUMN_PETS_GENDER);
-
-            // get each value at each column index
-            String name = cursor.getString(nameIndex);
-            String breed = cursor.getString(breedIndex);
-            int weight = cursor.getInt(weightIndex);
-            int gender = cursor.getInt(genderIndex);
+            // read the row into a pet
+            Pet pet = new PetMapper(cursor).read(cursor);
 
             // set the proper values in each user input field
-            mNameEditText.setText(name);
-            mBreedEditText.setText(breed);
-            mWeightEditText.setText(String.format(Locale.getDefault(), "%d", weight));
-            mGenderSpinner.setSelection(gender);
+            mNameEditText.setText(pet.name);
+            mBreedEditText.setText(pet.breed);
+            mWeightEditText.setText(String.format(Locale.getDefault(), "%d", pet.weight));
+            mGenderSpinner.setSelection(pet.gender);
+
+            // the next save is checked against this version
+            mLoadedVersion = pet.version;
 
         }
 
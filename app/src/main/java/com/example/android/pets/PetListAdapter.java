@@ -0,0 +1,364 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetThumbnailCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// adapter for the catalog RecyclerView
+// rows are kept as a snapshot of immutable items, and each cursor from the loader becomes a new snapshot
+// that DiffUtil compares with the current one on a background thread, so a single edit only rebinds
+// the rows that were actually inserted, moved, changed or removed
+// pages after the first one are still fetched by key (the last _ID loaded) as the list scrolls
+public class PetListAdapter extends RecyclerView.Adapter<PetListAdapter.ViewHolder> {
+
+    // number of rows requested per page
+    static final int PAGE_SIZE = PetEntry.CATALOG_PAGE_SIZE;
+
+    // start loading the next page when the list gets this close to the last loaded row
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    // columns needed to display a row
+    static final String[] PROJECTION = PetEntry.CATALOG_PROJECTION;
+
+    // receives clicks on list items
+    interface OnPetClickListener {
+        void onPetClick(long id);
+    }
+
+    // told on the main thread once the rows of a first page have reached the list, after its snapshot was diffed
+    interface OnFirstPageListener {
+        void onFirstPageShown();
+    }
+
+    private final Context mContext;
+
+    private final OnPetClickListener mClickListener;
+
+    // null until set by the catalog
+    private OnFirstPageListener mFirstPageListener;
+
+    // label for rows without a breed, looked up once instead of on every bind
+    private final String mUnknownBreed;
+
+    // photo thumbnails, decoded in the background so scrolling never decodes an image on the main thread
+    private final PetThumbnailCache mThumbnails;
+
+    // current snapshot, only replaced on the main thread or appended to when a page arrives
+    private List<PetListItem> mItems = new ArrayList<PetListItem>();
+
+    // false once a page came back with fewer than PAGE_SIZE rows, and for complete result sets
+    private boolean mHasMore;
+
+    // incremented by every swap, background results computed for an older generation are dropped
+    private int mGeneration;
+
+    // page currently being loaded in the background, null if none
+    private PageLoadTask mPendingLoad;
+
+    // snapshot currently being diffed in the background, null if none
+    private SnapshotTask mPendingSnapshot;
+
+    PetListAdapter(Context context, OnPetClickListener clickListener) {
+        mContext = context;
+        mClickListener = clickListener;
+        mUnknownBreed = context.getString(R.string.unknown_breed);
+        mThumbnails = PetThumbnailCache.getInstance(context);
+        setHasStableIds(true);
+    }
+
+    // the listener told when a first page is shown, or null
+    void setOnFirstPageListener(OnFirstPageListener listener) {
+        mFirstPageListener = listener;
+    }
+
+    // replace the snapshot with a new first page, null clears the list
+    // called with each cursor delivered by the catalog loader, the pages loaded below it are refreshed too
+    void swapFirstPage(Cursor firstPage) {
+        swap(firstPage, true);
+    }
+
+    // replace the snapshot with a complete result set, such as search results
+    // no further pages are loaded after it
+    void swapResults(Cursor results) {
+        swap(results, false);
+    }
+
+    // start building and diffing a new snapshot from the given cursor
+    private void swap(Cursor firstPage, boolean pageable) {
+
+        // anything still in flight was computed against the previous snapshot
+        mGeneration++;
+        if (mPendingLoad != null) {
+            mPendingLoad.cancel(false);
+            mPendingLoad = null;
+        }
+        if (mPendingSnapshot != null) {
+            mPendingSnapshot.cancel(false);
+        }
+
+        // the loader owns this cursor and closes it when it delivers the next one,
+        // so its rows are copied here, they are already in the cursor window
+        List<PetListItem> firstItems = firstPage == null
+                ? Collections.<PetListItem>emptyList()
+                : readItems(firstPage);
+
+        mPendingSnapshot = new SnapshotTask(mGeneration, new ArrayList<PetListItem>(mItems), firstItems, pageable,
+                pageable && firstPage != null);
+        mPendingSnapshot.execute();
+    }
+
+    // request the page after the last loaded row, unless one is already on its way
+    private void loadNextPage() {
+
+        // a new snapshot is being diffed, it decides whether there are more pages
+        if (!mHasMore || mPendingLoad != null || mPendingSnapshot != null || mItems.isEmpty()) {
+            return;
+        }
+
+        // the key of the next page is the _ID of the last row loaded
+        long lastId = mItems.get(mItems.size() - 1).id;
+
+        mPendingLoad = new PageLoadTask(mGeneration);
+        mPendingLoad.execute(lastId);
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(mContext).inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(view, mClickListener);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+
+        // fetch ahead so the next page is usually ready before the list reaches it
+        if (position >= mItems.size() - PREFETCH_DISTANCE) {
+            loadNextPage();
+        }
+
+        PetListItem item = mItems.get(position);
+
+        // set item data on views
+        holder.nameTextView.setText(item.name);
+
+        // if the breed has not been specified then display a default message
+        holder.breedTextView.setText(TextUtils.isEmpty(item.breed) ? mUnknownBreed : item.breed);
+
+        // a recycled view must not show the photo of the pet it was bound to before
+        // a thumbnail in memory is set before load returns, any other arrives later on the holder
+        holder.thumbnailImageView.setImageDrawable(null);
+        mThumbnails.load(item.id, holder);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mItems.size();
+    }
+
+    // row ids are primary keys and therefore stable across snapshots
+    @Override
+    public long getItemId(int position) {
+        return mItems.get(position).id;
+    }
+
+    // copy every row of the cursor into list items
+    private static List<PetListItem> readItems(Cursor cursor) {
+
+        int idColumnIndex = cursor.getColumnIndexOrThrow(PetEntry._ID);
+        int nameColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PETS_NAME);
+        int breedColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PETS_BREED);
+
+        List<PetListItem> items = new ArrayList<PetListItem>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            items.add(new PetListItem(cursor.getLong(idColumnIndex), cursor.getString(nameColumnIndex),
+                    cursor.getString(breedColumnIndex)));
+        }
+        return items;
+    }
+
+    // query at most limit rows after the given _ID and copy them into list items
+    private List<PetListItem> queryItems(long afterId, int limit) {
+
+        Cursor cursor = mContext.getContentResolver().query(
+                PetEntry.buildPageUri(afterId, limit), PROJECTION, null, null, null);
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+
+        try {
+            return readItems(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // views of one list item
+    static class ViewHolder extends RecyclerView.ViewHolder
+            implements View.OnClickListener, PetThumbnailCache.Callback {
+
+        final ImageView thumbnailImageView;
+        final TextView nameTextView;
+        final TextView breedTextView;
+
+        private final OnPetClickListener mClickListener;
+
+    // null until set by the catalog
+    private OnFirstPageListener mFirstPageListener;
+
+        ViewHolder(View view, OnPetClickListener clickListener) {
+            super(view);
+            thumbnailImageView = (ImageView) view.findViewById(R.id.thumbnail);
+            nameTextView = (TextView) view.findViewById(R.id.name);
+            breedTextView = (TextView) view.findViewById(R.id.breed);
+            mClickListener = clickListener;
+            view.setOnClickListener(this);
+        }
+
+        // the stable id of the bound item is the _ID of the pet
+        @Override
+        public void onClick(View view) {
+            if (getAdapterPosition() != RecyclerView.NO_POSITION) {
+                mClickListener.onPetClick(getItemId());
+            }
+        }
+
+        // the holder may have been rebound to another pet while the thumbnail was loading
+        @Override
+        public void onThumbnailLoaded(long id, Bitmap thumbnail) {
+            if (id == getItemId()) {
+                thumbnailImageView.setImageBitmap(thumbnail);
+            }
+        }
+    }
+
+    // builds the new snapshot and its difference to the old one off the main thread
+    private class SnapshotTask extends AsyncTask<Void, Void, DiffUtil.DiffResult> {
+
+        private final int mTaskGeneration;
+        private final List<PetListItem> mOldItems;
+        private final boolean mPageable;
+
+        // true for a first page from the loader, false for search results and for clearing the list
+        private final boolean mFirstPage;
+
+        // filled in the background, read in onPostExecute
+        private final List<PetListItem> mNewItems;
+        private boolean mNewHasMore;
+
+        SnapshotTask(int generation, List<PetListItem> oldItems, List<PetListItem> firstItems, boolean pageable,
+                     boolean firstPage) {
+            mTaskGeneration = generation;
+            mOldItems = oldItems;
+            mNewItems = new ArrayList<PetListItem>(firstItems);
+            mPageable = pageable;
+            mFirstPage = firstPage;
+        }
+
+        @Override
+        protected DiffUtil.DiffResult doInBackground(Void... voids) {
+
+            mNewHasMore = mPageable && mNewItems.size() == PAGE_SIZE;
+
+            // the user had scrolled past the first page, reload as many rows so the list keeps its extent
+            if (mNewHasMore && mOldItems.size() > mNewItems.size()) {
+                int limit = mOldItems.size() - mNewItems.size();
+                List<PetListItem> more = queryItems(mNewItems.get(mNewItems.size() - 1).id, limit);
+                mNewItems.addAll(more);
+                mNewHasMore = more.size() == limit;
+            }
+
+            return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+
+                @Override
+                public int getOldListSize() {
+                    return mOldItems.size();
+                }
+
+                @Override
+                public int getNewListSize() {
+                    return mNewItems.size();
+                }
+
+                @Override
+                public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                    return mOldItems.get(oldPosition).id == mNewItems.get(newPosition).id;
+                }
+
+                @Override
+                public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                    return mOldItems.get(oldPosition).equals(mNewItems.get(newPosition));
+                }
+            });
+        }
+
+        @Override
+        protected void onPostExecute(DiffUtil.DiffResult diff) {
+
+            // a newer swap has started since this one
+            if (mTaskGeneration != mGeneration) {
+                return;
+            }
+
+            mPendingSnapshot = null;
+            mItems = mNewItems;
+            mHasMore = mNewHasMore;
+
+            // only the rows that differ are notified and rebound
+            diff.dispatchUpdatesTo(PetListAdapter.this);
+
+            // the next frame draws these rows, or the empty view only if there really are no pets
+            if (mFirstPage && mFirstPageListener != null) {
+                mFirstPageListener.onFirstPageShown();
+            }
+        }
+    }
+
+    // queries one page after the given _ID off the main thread
+    private class PageLoadTask extends AsyncTask<Long, Void, List<PetListItem>> {
+
+        private final int mTaskGeneration;
+
+        PageLoadTask(int generation) {
+            mTaskGeneration = generation;
+        }
+
+        @Override
+        protected List<PetListItem> doInBackground(Long... afterIds) {
+            return queryItems(afterIds[0], PAGE_SIZE);
+        }
+
+        @Override
+        protected void onPostExecute(List<PetListItem> page) {
+
+            // the snapshot was replaced while this page was loading
+            if (mTaskGeneration != mGeneration) {
+                return;
+            }
+
+            mPendingLoad = null;
+
+            int start = mItems.size();
+            mItems.addAll(page);
+            mHasMore = page.size() == PAGE_SIZE;
+            notifyItemRangeInserted(start, page.size());
+        }
+    }
+
+}
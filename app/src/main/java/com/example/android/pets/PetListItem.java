@@ -0,0 +1,45 @@
+package com.example.android.pets;
+
+// immutable copy of the columns shown for one pet in the catalog
+// two items with the same values are equal, which is how DiffUtil decides a row has not changed
+// text is copied into Strings once when a row is loaded, so the item outlives its cursor and binding allocates nothing
+final class PetListItem {
+
+    final long id;
+    final String name;
+    final String breed;
+
+    PetListItem(long id, String name, String breed) {
+        this.id = id;
+        this.name = name;
+        this.breed = breed;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PetListItem)) {
+            return false;
+        }
+
+        PetListItem other = (PetListItem) o;
+        return id == other.id && equal(name, other.name) && equal(breed, other.breed);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (name == null ? 0 : name.hashCode());
+        result = 31 * result + (breed == null ? 0 : breed.hashCode());
+        return result;
+    }
+
+    // null safe equality, since breed can be null
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.example.android.pets.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// sync server that keeps its log in memory, for running PetSyncEngine without a network
+// several engines can share one instance to play the devices of a shelter, and failures can be
+// switched on to check that a sync interrupted at any point picks up where it stopped
+public class LocalPetSyncServer implements PetSyncServer {
+
+    // the server log, the delta with sequence number n is at index n - 1
+    private final List<PetDelta> mLog = new ArrayList<PetDelta>();
+
+    // true while every call fails as if the network were down
+    private boolean mFailing;
+
+    @Override
+    public synchronized void push(String clientId, List<PetDelta> deltas) throws IOException {
+
+        checkFailing();
+
+        for (PetDelta delta : deltas) {
+            mLog.add(new PetDelta(mLog.size() + 1, delta.petUuid, delta.pet, clientId));
+        }
+    }
+
+    @Override
+    public synchronized List<PetDelta> pull(long afterSequence, int limit) throws IOException {
+
+        checkFailing();
+
+        if (afterSequence < 0 || limit <= 0) {
+            throw new IllegalArgumentException("Invalid pull after " + afterSequence + " limit " + limit);
+        }
+
+        if (afterSequence >= mLog.size()) {
+            return Collections.emptyList();
+        }
+
+        // a copy, so later pushes cannot change a page the caller is still applying
+        int from = (int) afterSequence;
+        int to = (int) Math.min(mLog.size(), afterSequence + limit);
+        return new ArrayList<PetDelta>(mLog.subList(from, to));
+    }
+
+    // make every following call throw an IOException, or work again
+    public synchronized void setFailing(boolean failing) {
+        mFailing = failing;
+    }
+
+    // every delta in the server log, in sequence order
+    public synchronized List<PetDelta> getLog() {
+        return new ArrayList<PetDelta>(mLog);
+    }
+
+    private void checkFailing() throws IOException {
+        if (mFailing) {
+            throw new IOException("Server unavailable");
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.example.android.pets.data;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+// one row of the pets table
+// "final" modifier because instances are immutable values
+public final class Pet {
+
+    // primary key of the row
+    public final long id;
+
+    public final String name;
+
+    // null if the breed has not been specified
+    public final String breed;
+
+    // one of the PetEntry.GENDER_ constants
+    public final int gender;
+
+    // weight in kilograms
+    public final int weight;
+
+    // row version, incremented by every update of the pet
+    public final long version;
+
+    public Pet(long id, String name, String breed, int gender, int weight, long version) {
+        this.id = id;
+        this.name = name;
+        this.breed = breed;
+        this.gender = gender;
+        this.weight = weight;
+        this.version = version;
+    }
+
+    // value of the named column of the row, as it would be read from a cursor
+    public Object get(String column) {
+        if (PetEntry._ID.equals(column)) {
+            return id;
+        } else if (PetEntry.COLUMN_PETS_NAME.equals(column)) {
+            return name;
+        } else if (PetEntry.COLUMN_PETS_BREED.equals(column)) {
+            return breed;
+        } else if (PetEntry.COLUMN_PETS_GENDER.equals(column)) {
+            return gender;
+        } else if (PetEntry.COLUMN_PETS_WEIGHT.equals(column)) {
+            return weight;
+        } else if (PetEntry.COLUMN_PETS_VERSION.equals(column)) {
+            return version;
+        }
+        throw new IllegalArgumentException("Unknown column: " + column);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Pet)) {
+            return false;
+        }
+
+        Pet other = (Pet) o;
+        return id == other.id && gender == other.gender && weight == other.weight && version == other.version &&
+                name.equals(other.name) && (breed == null ? other.breed == null : breed.equals(other.breed));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + name.hashCode();
+        result = 31 * result + (breed == null ? 0 : breed.hashCode());
+        result = 31 * result + gender;
+        result = 31 * result + weight;
+        result = 31 * result + (int) (version ^ (version >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Pet{id=" + id + ", name=" + name + ", breed=" + breed +
+                ", gender=" + gender + ", weight=" + weight + ", version=" + version + "}";
+    }
+
+}
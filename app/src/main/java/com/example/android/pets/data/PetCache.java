@@ -0,0 +1,90 @@
+package com.example.android.pets.data;
+
+import android.util.LruCache;
+
+// process-wide cache of single pets keyed by _ID, read through by the provider's single pet queries
+// so opening a pet that was just shown is a memory lookup instead of a database query
+// the provider invalidates entries on every write, and a read that raced with a write never fills the cache
+public final class PetCache {
+
+    // pets kept before the least recently used one is evicted
+    public static final int DEFAULT_MAX_PETS = 512;
+
+    // shared by every provider instance in the process
+    private static final PetCache sInstance = new PetCache(DEFAULT_MAX_PETS);
+
+    // hit, miss and eviction counts are kept by the LruCache itself
+    private final LruCache<Long, Pet> mPets;
+
+    // incremented by every invalidation, guarded by this
+    // a reader records it before querying the database and only caches its row if it has not changed since
+    private long mGeneration;
+
+    PetCache(int maxPets) {
+        mPets = new LruCache<Long, Pet>(maxPets);
+    }
+
+    // the cache shared by the process
+    public static PetCache getInstance() {
+        return sInstance;
+    }
+
+    // cached pet with the given _ID, null on a miss
+    Pet get(long id) {
+        return mPets.get(id);
+    }
+
+    // current generation, to be passed to put along with the row read after this call
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    // cache a pet read from the database, unless a write invalidated the cache since the generation was taken
+    synchronized void put(Pet pet, long generation) {
+        if (generation == mGeneration) {
+            mPets.put(pet.id, pet);
+        }
+    }
+
+    // drop the pet with the given _ID after it was written
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mPets.remove(id);
+    }
+
+    // drop every pet after a write that may have touched any row
+    // entries are removed one by one so they are not counted as evictions
+    synchronized void invalidateAll() {
+        mGeneration++;
+        for (Long id : mPets.snapshot().keySet()) {
+            mPets.remove(id);
+        }
+    }
+
+    // number of lookups that found a pet
+    public int hitCount() {
+        return mPets.hitCount();
+    }
+
+    // number of lookups that went to the database
+    public int missCount() {
+        return mPets.missCount();
+    }
+
+    // number of pets dropped to stay within the size limit
+    public int evictionCount() {
+        return mPets.evictionCount();
+    }
+
+    // number of pets currently cached
+    public int size() {
+        return mPets.size();
+    }
+
+    @Override
+    public String toString() {
+        return "PetCache{size=" + size() + ", hits=" + hitCount() + ", misses=" + missCount() +
+                ", evictions=" + evictionCount() + "}";
+    }
+
+}
@@ -0,0 +1,157 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// collects the URIs changed by provider writes and notifies the content resolver once per window
+// a burst of writes therefore costs each cursor loader a single requery instead of one per write
+public class PetChangeNotifier {
+
+    // default time between the first change in a burst and the notification for that burst
+    public static final long DEFAULT_WINDOW_MILLIS = 100;
+
+    // resolver that receives the coalesced notifications
+    private final ContentResolver mResolver;
+
+    // counts changes marked and notifications sent
+    private final PetMetrics mMetrics;
+
+    // time changes are collected before a flush, zero flushes on the next loop of the notifier thread
+    private final long mWindowMillis;
+
+    // notifications are sent from a dedicated thread so writers never wait on the binder call
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    // URIs changed since the last flush, duplicates are dropped by the set
+    // guarded by this object since writes arrive on any binder thread
+    private final Set<Uri> mDirtyUris = new LinkedHashSet<Uri>();
+
+    // true once a flush has been posted for the current window
+    private boolean mFlushScheduled;
+
+    // posted once per window to send the collected notifications
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public PetChangeNotifier(ContentResolver resolver, long windowMillis, PetMetrics metrics) {
+
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("Notification window cannot be negative: " + windowMillis);
+        }
+
+        mResolver = resolver;
+        mWindowMillis = windowMillis;
+        mMetrics = metrics;
+
+        mThread = new HandlerThread(PetChangeNotifier.class.getSimpleName());
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    // record a changed URI, the notification is sent when the current window closes
+    public void markDirty(Uri uri) {
+
+        mMetrics.changeMarked();
+
+        synchronized (this) {
+            mDirtyUris.add(uri);
+
+            // a flush is already pending for this window, it will pick up this URI as well
+            if (mFlushScheduled) {
+                return;
+            }
+            mFlushScheduled = true;
+        }
+
+        // the window is measured from the first change so a steady stream of writes cannot delay it forever
+        mHandler.postDelayed(mFlushRunnable, mWindowMillis);
+    }
+
+    // send the notifications for every URI collected so far
+    public void flush() {
+
+        Uri[] uris;
+
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mFlushScheduled = false;
+
+            if (mDirtyUris.isEmpty()) {
+                return;
+            }
+
+            uris = mDirtyUris.toArray(new Uri[mDirtyUris.size()]);
+            mDirtyUris.clear();
+        }
+
+        // the changed URIs grouped by the pets URI of their shelter, in the order they were first marked
+        Map<Uri, List<Uri>> groups = new LinkedHashMap<Uri, List<Uri>>();
+        for (Uri uri : uris) {
+
+            // a URI outside every pets table, such as a deleted shelter, is notified as it is
+            Uri petsUri = petsUriOf(uri);
+            Uri key = petsUri == null ? uri : petsUri;
+
+            List<Uri> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<Uri>();
+                groups.put(key, group);
+            }
+            group.add(uri);
+        }
+
+        for (Map.Entry<Uri, List<Uri>> group : groups.entrySet()) {
+
+            mMetrics.notificationSent();
+
+            // a single changed row only concerns observers of that row and of its shelter's table
+            if (group.getValue().size() == 1) {
+                mResolver.notifyChange(group.getValue().get(0), null);
+                continue;
+            }
+
+            // a change to a shelter's pets URI also reaches every observer of a single pet URI below it,
+            // so one table notification per shelter replaces any number of row notifications without missing anyone
+            // the pets URI of one shelter is no ancestor of another's, so every shelter needs its own
+            mResolver.notifyChange(group.getKey(), null);
+        }
+    }
+
+    // the pets URI of the shelter the given URI belongs to, or null for a URI outside every pets table
+    private static Uri petsUriOf(Uri uri) {
+
+        // a pets URI of a shelter other than the default one is prefixed with shelters/<shelter>
+        List<String> segments = uri.getPathSegments();
+        int pets = segments.size() > 2 && PetContract.PATH_SHELTERS.equals(segments.get(0)) ? 2 : 0;
+        if (segments.size() <= pets || !PetContract.PATH_PETS.equals(segments.get(pets))) {
+            return null;
+        }
+
+        Uri.Builder builder = uri.buildUpon().path(null).encodedQuery(null).fragment(null);
+        for (String segment : segments.subList(0, pets + 1)) {
+            builder.appendPath(segment);
+        }
+        return builder.build();
+    }
+
+    // send anything still pending and stop the notifier thread
+    public void quit() {
+        flush();
+        mThread.quit();
+    }
+
+}
@@ -0,0 +1,243 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.File;
+
+// purges soft deleted pets in the background and gives their pages back to the file system
+// photos of purged pets are deleted after them
+// rows are purged in small transactions, so the write lock is only ever held for one chunk and
+// other writers get in between, then free pages are released a few at a time by incremental vacuum
+// the deleted rows are found through the partial index of PetDbHelper's version 10 where sqlite has one
+class PetCompactor {
+
+    // tag for log messages
+    private static final String LOG_TAG = PetCompactor.class.getSimpleName();
+
+    // default time without new deletes before a compaction starts
+    static final long DEFAULT_DELAY_MILLIS = 2000;
+
+    // default number of rows purged per transaction
+    static final int DEFAULT_CHUNK_SIZE = 500;
+
+    // pages released per incremental vacuum step, each step is its own transaction
+    private static final int VACUUM_PAGES_PER_STEP = 256;
+
+    // value of PRAGMA auto_vacuum for incremental mode
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // purge statement, the subquery finds a chunk of deleted rows and the outer delete goes by primary key
+    private static final String SQL_PURGE_CHUNK = "DELETE FROM " + PetEntry.TABLE_NAME + " WHERE " +
+            PetEntry._ID + " IN (SELECT " + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME + " WHERE " +
+            PetDbHelper.COLUMN_DELETED + " = 1 LIMIT ?)";
+
+    // finds whether the pet of a photo file still exists, deleted or not
+    private static final String SQL_PET_EXISTS = "SELECT COUNT(*) FROM " + PetEntry.TABLE_NAME + " WHERE " +
+            PetEntry._ID + " = ?";
+
+    // application context, for the battery state
+    private final Context mContext;
+
+    private final SQLiteOpenHelper mDbHelper;
+
+    // directory of the photo files, see PetPhotos
+    private final File mPhotoDirectory;
+
+    // dropped along with the photos, null if the photos have no thumbnails
+    private final PetThumbnailCache mThumbnails;
+
+    private final long mDelayMillis;
+
+    private final int mChunkSize;
+
+    // compactions run on a dedicated thread, one at a time
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    // set by quit, a running compaction stops after its current chunk or vacuum step
+    private volatile boolean mQuitting;
+
+    private final Runnable mCompactRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                compact();
+            } catch (SQLException e) {
+                // the deleted rows stay hidden and are picked up by the next compaction
+                Log.e(LOG_TAG, "Compaction failed", e);
+            }
+        }
+    };
+
+    PetCompactor(Context context, SQLiteOpenHelper dbHelper, long delayMillis, int chunkSize, File photoDirectory,
+                 PetThumbnailCache thumbnails) {
+
+        if (delayMillis < 0) {
+            throw new IllegalArgumentException("Compaction delay cannot be negative: " + delayMillis);
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+
+        mContext = context.getApplicationContext();
+        mDbHelper = dbHelper;
+        mDelayMillis = delayMillis;
+        mChunkSize = chunkSize;
+        mPhotoDirectory = photoDirectory;
+        mThumbnails = thumbnails;
+
+        mThread = new HandlerThread(PetCompactor.class.getSimpleName());
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    // start a compaction once deletes have been quiet for the delay, called after every soft delete
+    // a burst of deletes is compacted once, after the last of them
+    void schedule() {
+        mHandler.removeCallbacks(mCompactRunnable);
+        mHandler.postDelayed(mCompactRunnable, mDelayMillis);
+    }
+
+    // drop any pending compaction, stop a running one and wait for the compactor thread to end
+    // the shard closes the database right after this, which a compaction still running would find closed
+    void quit() {
+
+        mQuitting = true;
+        mHandler.removeCallbacks(mCompactRunnable);
+        mThread.quit();
+
+        // the running chunk is short, so the wait is too, an interrupt is kept for the caller
+        boolean interrupted = false;
+        while (mThread.isAlive()) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // purge every deleted pet and release free pages, returns the number of rows purged
+    // runs on the calling thread, normally the compactor thread, and stops early once quit is called
+    int compact() {
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int purged = 0;
+
+        SQLiteStatement statement = database.compileStatement(SQL_PURGE_CHUNK);
+        try {
+            while (!mQuitting) {
+
+                int rows;
+                database.beginTransaction();
+                try {
+                    statement.bindLong(1, mChunkSize);
+                    rows = statement.executeUpdateDelete();
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+
+                purged += rows;
+
+                // a short chunk was the last one
+                if (rows < mChunkSize) {
+                    break;
+                }
+            }
+        } finally {
+            statement.close();
+        }
+
+        if (purged > 0) {
+
+            // photos and free pages left behind are handled by the next compaction that purges pets
+            if (!mQuitting) {
+                deleteOrphanedPhotos(database);
+                vacuum(database);
+            }
+            Log.i(LOG_TAG, "Purged " + purged + " deleted pets");
+        }
+
+        return purged;
+    }
+
+    // delete the photo files whose pet has been purged
+    // a pet that is only marked deleted keeps its photo until it is purged
+    private void deleteOrphanedPhotos(SQLiteDatabase database) {
+
+        File[] photos = mPhotoDirectory.listFiles();
+        if (photos == null) {
+            return;
+        }
+
+        // one lookup by primary key per photo, photos are few compared to pets
+        SQLiteStatement exists = database.compileStatement(SQL_PET_EXISTS);
+        try {
+            for (File photo : photos) {
+
+                long id = PetPhotos.idOf(photo);
+                if (id < 0) {
+                    continue;
+                }
+
+                exists.bindLong(1, id);
+                if (exists.simpleQueryForLong() == 0 && photo.delete() && mThumbnails != null) {
+                    mThumbnails.invalidate(id);
+                }
+            }
+        } finally {
+            exists.close();
+        }
+    }
+
+    // true if the device is plugged in, read from the sticky battery broadcast without registering a receiver
+    private boolean isCharging() {
+        Intent battery = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    // give free pages back to the file system in small steps
+    private void vacuum(SQLiteDatabase database) {
+
+        // incremental vacuum only works in incremental auto vacuum mode, and switching a database to it
+        // takes one full VACUUM, which rewrites the whole file under the write lock
+        // it is only done while the device charges, until then free pages stay in the file for new rows
+        long autoVacuum = DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null);
+        if (autoVacuum != AUTO_VACUUM_INCREMENTAL) {
+            if (isCharging()) {
+                PetDbHelper.runPragma(database, "PRAGMA auto_vacuum = INCREMENTAL");
+                database.execSQL("VACUUM");
+            }
+            return;
+        }
+
+        // stop as soon as a step makes no progress, pages freed by concurrent writers can wait for next time
+        long freePages = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+        while (freePages > 0 && !mQuitting) {
+            PetDbHelper.runPragma(database, "PRAGMA incremental_vacuum(" + VACUUM_PAGES_PER_STEP + ")");
+            long remaining = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+            if (remaining >= freePages) {
+                break;
+            }
+            freePages = remaining;
+        }
+    }
+
+}
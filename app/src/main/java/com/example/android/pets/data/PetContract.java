@@ -1,6 +1,7 @@
 package com.example.android.pets.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -20,6 +21,34 @@ public final class PetContract {
     // possible content URI endpoint, appended to common base URI in PetEntry
     public static final String PATH_PETS = "pets";
 
+    // content URI endpoint for full-text search, appended to the pets content URI
+    public static final String PATH_SEARCH = "search";
+
+    // content URI endpoint for aggregates, appended to the pets content URI
+    public static final String PATH_STATS = "stats";
+
+    // content URI endpoint for the photo of a pet, appended to a single pet content URI
+    public static final String PATH_PHOTO = "photo";
+
+    // content URI endpoint for the change log, appended to the pets content URI
+    public static final String PATH_CHANGES = "changes";
+
+    // content URI endpoint for shelters, appended to common base URI in ShelterEntry
+    public static final String PATH_SHELTERS = "shelters";
+
+    // content URI endpoint for diagnostics of the provider itself
+    public static final String PATH_DEBUG = "debug";
+
+    // content URI for the provider metrics, one row per operation and kind of URI, see PetMetrics.toCursor
+    // equivalent to "content://com.example.android.pets/debug/metrics"
+    public static final Uri METRICS_URI = BASE_CONTENT_URI.buildUpon()
+            .appendPath(PATH_DEBUG).appendPath("metrics").build();
+
+    // MIME type for the provider metrics
+    // equivalent to "vnd.android.cursor.dir/com.example.android.pets/debug"
+    public static final String CONTENT_DEBUG_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE +
+            "/" + CONTENT_AUTHORITY + "/" + PATH_DEBUG;
+
     public static final class PetEntry implements BaseColumns {
 
         // table
@@ -32,6 +61,15 @@ public final class PetContract {
         public static final String COLUMN_PETS_GENDER = "gender";
         public static final String COLUMN_PETS_WEIGHT = "weight";
 
+        // incremented by the database on every update of a pet, starting at 1 for a new pet
+        // read only, writers pass the version they loaded to detect concurrent changes
+        public static final String COLUMN_PETS_VERSION = "version";
+
+        // identity of the pet across devices and the shelter system, assigned when the pet is first inserted
+        // and never changed, whereas _ID is handed out by each device on its own and only means something there
+        // read only, an opaque string that a pet pulled by the sync engine brings along from the device it came from
+        public static final String COLUMN_PETS_UUID = "uuid";
+
         // genders
         public static final int GENDER_UNKNOWN = 0;
         public static final int GENDER_MALE = 1;
@@ -49,6 +87,207 @@ public final class PetContract {
         // equivalent to "content://com.example.android.pets/pets"
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
 
+        // query parameters for keyset paging on CONTENT_URI
+        // a paged query returns rows in _ID order, starting after the given _ID and stopping at the limit
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        // columns and page size of the catalog list, whose first page the provider prefetches at startup
+        public static final String[] CATALOG_PROJECTION = {_ID, COLUMN_PETS_NAME, COLUMN_PETS_BREED};
+        public static final int CATALOG_PAGE_SIZE = 50;
+
+        // content URI for a page of at most limit pets whose _ID is greater than afterId
+        // equivalent to "content://com.example.android.pets/pets?after_id=#&limit=#"
+        public static Uri buildPageUri(long afterId, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        // query parameter on a single pet URI making an update conditional on the version of the pet
+        // the update is rejected with a PetVersionConflictException if the pet was changed since
+        public static final String QUERY_PARAMETER_EXPECTED_VERSION = "expected_version";
+
+        // content URI that updates the given single pet only if it still has the given version
+        // equivalent to "content://com.example.android.pets/pets/#?expected_version=#"
+        public static Uri buildVersionedUri(Uri petUri, long expectedVersion) {
+            return petUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_EXPECTED_VERSION, String.valueOf(expectedVersion))
+                    .build();
+        }
+
+        // content URI for the photo of the given pet, a JPEG file rather than a row
+        // read it with ContentResolver.openInputStream, replace it with openOutputStream
+        // equivalent to "content://com.example.android.pets/pets/#/photo"
+        public static Uri buildPhotoUri(long id) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(CONTENT_URI, id), PATH_PHOTO);
+        }
+
+        // content URI for full-text search over pet names and breeds
+        // equivalent to "content://com.example.android.pets/pets/search"
+        public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        // query parameter holding the text typed by the user
+        // every word is matched as a prefix of a word in the name or breed, pets matching by name come first
+        // it also filters CONTENT_URI and the aggregate URIs, see QueryBuilder.text
+        public static final String QUERY_PARAMETER_SEARCH = "q";
+
+        // content URI for the most relevant pets matching the given text, at most limit of them
+        // equivalent to "content://com.example.android.pets/pets/search?q=text&limit=#"
+        public static Uri buildSearchUri(String text, int limit) {
+            return SEARCH_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SEARCH, text)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        // query parameters filtering CONTENT_URI and the aggregate URIs, see QueryBuilder
+        // every parameter present must hold, weights are inclusive bounds and breeds match exactly
+        public static final String QUERY_PARAMETER_GENDER = "gender";
+        public static final String QUERY_PARAMETER_MIN_WEIGHT = "min_weight";
+        public static final String QUERY_PARAMETER_MAX_WEIGHT = "max_weight";
+        public static final String QUERY_PARAMETER_BREED = "breed";
+
+        // query parameter ordering CONTENT_URI by one of the SORT_ values, ties are broken by _ID
+        // cannot be combined with a sort order argument or with after_id
+        public static final String QUERY_PARAMETER_SORT = "sort";
+        public static final String SORT_NAME = "name";
+        public static final String SORT_NAME_DESC = "name_desc";
+        public static final String SORT_WEIGHT = "weight";
+        public static final String SORT_WEIGHT_DESC = "weight_desc";
+
+        // returns true if the sort is one of the SORT_ values
+        public static boolean isValidSort(String sort) {
+            return SORT_NAME.equals(sort) || SORT_NAME_DESC.equals(sort) ||
+                    SORT_WEIGHT.equals(sort) || SORT_WEIGHT_DESC.equals(sort);
+        }
+
+        // content URIs for aggregates computed by the database, filtered by the same query parameters
+        // equivalent to "content://com.example.android.pets/pets/stats/..."
+        public static final Uri STATS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_STATS);
+
+        // one row per gender with the columns gender and count, in gender order
+        public static final Uri COUNT_BY_GENDER_URI = Uri.withAppendedPath(STATS_URI, "count_by_gender");
+
+        // one row per breed with the columns breed and count, in breed order, pets without a breed come first
+        public static final Uri COUNT_BY_BREED_URI = Uri.withAppendedPath(STATS_URI, "count_by_breed");
+
+        // a single row with the columns average_weight and count, average_weight is null if count is 0
+        public static final Uri AVERAGE_WEIGHT_URI = Uri.withAppendedPath(STATS_URI, "average_weight");
+
+        // columns of the aggregate results
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_AVERAGE_WEIGHT = "average_weight";
+
+        // reports computed from an in-memory copy of the columns of every pet rather than by the database,
+        // for scans over very many pets, they take the group_by parameter but none of the filter parameters
+        // the first report on a shelter pays for reading every pet, later ones only for pets written since
+
+        // one row per group with the columns count and average_weight, in group order, nulls first
+        public static final Uri SUMMARY_URI = Uri.withAppendedPath(STATS_URI, "summary");
+
+        // one row per group and weight bucket with the columns weight, the lowest weight of the bucket,
+        // and count, in group and then weight order, empty buckets are left out
+        public static final Uri WEIGHT_HISTOGRAM_URI = Uri.withAppendedPath(STATS_URI, "weight_histogram");
+
+        // query parameter grouping a report by gender, breed or name, the group is its first column
+        // without it a summary is a single row and a histogram covers every pet
+        public static final String QUERY_PARAMETER_GROUP_BY = "group_by";
+
+        // query parameter with the width of the weight buckets of a histogram in kilograms, 1 if not given
+        public static final String QUERY_PARAMETER_BUCKET_WIDTH = "bucket_width";
+
+        // content URI for a summary grouped by one of COLUMN_PETS_GENDER, COLUMN_PETS_BREED or
+        // COLUMN_PETS_NAME, or null for a single row
+        // equivalent to "content://com.example.android.pets/pets/stats/summary?group_by=breed"
+        public static Uri buildSummaryUri(String groupBy) {
+            Uri.Builder builder = SUMMARY_URI.buildUpon();
+            if (groupBy != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_GROUP_BY, groupBy);
+            }
+            return builder.build();
+        }
+
+        // content URI for a histogram of weights in buckets of the given width, grouped as in buildSummaryUri
+        // equivalent to "content://com.example.android.pets/pets/stats/weight_histogram?bucket_width=#"
+        public static Uri buildWeightHistogramUri(int bucketWidth, String groupBy) {
+            Uri.Builder builder = WEIGHT_HISTOGRAM_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_BUCKET_WIDTH, String.valueOf(bucketWidth));
+            if (groupBy != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_GROUP_BY, groupBy);
+            }
+            return builder.build();
+        }
+
+        // builds a URI for a filtered and sorted query on CONTENT_URI, or for a filtered aggregate
+        // unset filters match every pet, the range checks are left to the provider
+        public static final class QueryBuilder {
+
+            private final Uri.Builder mBuilder;
+
+            // start from the pets table or one of the aggregate URIs
+            public QueryBuilder(Uri baseUri) {
+                mBuilder = baseUri.buildUpon();
+            }
+
+            // only pets of one of the GENDER_ constants
+            public QueryBuilder gender(int gender) {
+                if (!isValidGender(gender)) {
+                    throw new IllegalArgumentException("Unknown gender: " + gender);
+                }
+                mBuilder.appendQueryParameter(QUERY_PARAMETER_GENDER, String.valueOf(gender));
+                return this;
+            }
+
+            // only pets weighing at least min and at most max kilograms
+            public QueryBuilder weightBetween(int min, int max) {
+                if (min < 0 || max < min) {
+                    throw new IllegalArgumentException("Invalid weight range: " + min + " to " + max);
+                }
+                mBuilder.appendQueryParameter(QUERY_PARAMETER_MIN_WEIGHT, String.valueOf(min));
+                mBuilder.appendQueryParameter(QUERY_PARAMETER_MAX_WEIGHT, String.valueOf(max));
+                return this;
+            }
+
+            // only pets of exactly this breed
+            public QueryBuilder breed(String breed) {
+                if (breed == null) {
+                    throw new IllegalArgumentException("Breed cannot be null");
+                }
+                mBuilder.appendQueryParameter(QUERY_PARAMETER_BREED, breed);
+                return this;
+            }
+
+            // only pets where every word of the text starts a word of the name or breed, as in a search
+            public QueryBuilder text(String text) {
+                if (text == null) {
+                    throw new IllegalArgumentException("Text cannot be null");
+                }
+                mBuilder.appendQueryParameter(QUERY_PARAMETER_SEARCH, text);
+                return this;
+            }
+
+            // order by one of the SORT_ values, only for CONTENT_URI
+            public QueryBuilder sortBy(String sort) {
+                if (!isValidSort(sort)) {
+                    throw new IllegalArgumentException("Unknown sort: " + sort);
+                }
+                mBuilder.appendQueryParameter(QUERY_PARAMETER_SORT, sort);
+                return this;
+            }
+
+            // at most limit rows, only for CONTENT_URI
+            public QueryBuilder limit(int limit) {
+                mBuilder.appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+                return this;
+            }
+
+            public Uri build() {
+                return mBuilder.build();
+            }
+        }
+
         // MIME type for a list of pets
         // equivalent to "vnd.android.cursor.dir/com.example.android.pets/pets"
         public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE +
@@ -59,6 +298,163 @@ public final class PetContract {
         public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE +
                 "/" + CONTENT_AUTHORITY + "/" + PATH_PETS;
 
+        // MIME type for a pet photo
+        public static final String CONTENT_PHOTO_TYPE = "image/jpeg";
+
+        // MIME type for aggregate rows
+        // equivalent to "vnd.android.cursor.dir/com.example.android.pets/stats"
+        public static final String CONTENT_STATS_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE +
+                "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+    }
+
+    // log of the pets changed on this device that have not been pushed to the shelter system yet
+    // the database appends to it on every insert, update and delete of a pet, whichever path it comes from
+    public static final class PetChangeEntry implements BaseColumns {
+
+        // table
+        public static final String TABLE_NAME = "pets_changes";
+
+        // columns of the table, the sequence number is assigned in increasing order and never reused
+        public static final String COLUMN_SEQUENCE = "seq";
+        public static final String COLUMN_PET_ID = "pet_id";
+        public static final String COLUMN_OPERATION = "operation";
+
+        // PetEntry.COLUMN_PETS_UUID of the changed pet, kept in the log since a deleted pet may be purged
+        // before its delete is pushed
+        public static final String COLUMN_PET_UUID = "pet_uuid";
+
+        // operations
+        public static final int OPERATION_INSERT = 0;
+        public static final int OPERATION_UPDATE = 1;
+        public static final int OPERATION_DELETE = 2;
+
+        // content URI for the log, equivalent to "content://com.example.android.pets/pets/changes"
+        // a query returns one row per changed pet with the columns seq, pet_id, pet_uuid, deleted and the columns
+        // of PetMapper.COLUMNS holding the current state of the pet, in order of its latest change
+        // seq is the sequence number of that latest change, deleted is 1 if the pet is gone
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_CHANGES);
+
+        // column of the query result, 1 if the pet has been deleted and its other columns are null
+        public static final String COLUMN_DELETED = "deleted";
+
+        // query parameters for the log, only changes after the given sequence number, at most limit pets,
+        // and optionally only the given pet, by _ID or by uuid
+        public static final String QUERY_PARAMETER_AFTER_SEQUENCE = "after_seq";
+        public static final String QUERY_PARAMETER_PET_ID = "pet_id";
+        public static final String QUERY_PARAMETER_PET_UUID = "pet_uuid";
+
+        // delete parameter, a delete on CONTENT_URI drops every change up to and including this sequence number
+        public static final String QUERY_PARAMETER_UP_TO_SEQUENCE = "up_to_seq";
+
+        // query parameter marking a write on the pets URIs as coming from the sync engine
+        // such writes apply remote changes and are not logged, so they are not pushed back,
+        // and inserts give the uuid of the pet, which replaces the pet with that uuid if this device has it
+        public static final String QUERY_PARAMETER_CALLER_IS_SYNC_ADAPTER = "caller_is_sync_adapter";
+
+        // content URI for at most limit changed pets whose latest change comes after the given sequence number
+        public static Uri buildChangesUri(long afterSequence, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_SEQUENCE, String.valueOf(afterSequence))
+                    .appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        // content URI for the pending change of a single pet, empty if the pet has not changed since the last push
+        public static Uri buildPetChangesUri(long petId) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_PET_ID, String.valueOf(petId))
+                    .build();
+        }
+
+        // content URI for the pending change of the pet with the given uuid, see PetEntry.COLUMN_PETS_UUID
+        public static Uri buildPetChangesUri(String petUuid) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_PET_UUID, petUuid)
+                    .build();
+        }
+
+        // content URI that deletes every change up to and including the given sequence number
+        public static Uri buildTrimUri(long upToSequence) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_UP_TO_SEQUENCE, String.valueOf(upToSequence))
+                    .build();
+        }
+
+        // the given pets URI marked as a write of the sync engine
+        public static Uri asSyncAdapter(Uri uri) {
+            return uri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_CALLER_IS_SYNC_ADAPTER, "true")
+                    .build();
+        }
+
+        // MIME type for the change log
+        // equivalent to "vnd.android.cursor.dir/com.example.android.pets/changes"
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE +
+                "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+    }
+
+    // shelters, each one keeps its pets in a database file of its own
+    // any pets URI addresses the default shelter, and the same URI prefixed with shelters/<id>
+    // addresses the pets of another shelter, see scope
+    public static final class ShelterEntry implements BaseColumns {
+
+        // shelter addressed by pets URIs without a shelter prefix
+        public static final long DEFAULT_SHELTER_ID = 0;
+
+        // path segment in place of a shelter id that addresses every shelter at once, queries only
+        public static final String PATH_ALL = "all";
+
+        // content URI listing every shelter that has a database, one row with the _ID of each
+        // equivalent to "content://com.example.android.pets/shelters"
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SHELTERS);
+
+        // column added to the rows of a query over every shelter, the shelter the row comes from
+        public static final String COLUMN_SHELTER_ID = "shelter_id";
+
+        // content URI for a single shelter, deleting it deletes the shelter with every pet in it
+        // equivalent to "content://com.example.android.pets/shelters/#"
+        public static Uri buildShelterUri(long shelterId) {
+            return ContentUris.withAppendedId(CONTENT_URI, shelterId);
+        }
+
+        // the given pets URI for the given shelter, unchanged for the default shelter
+        // equivalent to "content://com.example.android.pets/shelters/#/pets..."
+        public static Uri scope(long shelterId, Uri uri) {
+            if (shelterId == DEFAULT_SHELTER_ID) {
+                return uri;
+            }
+            return prefix(String.valueOf(shelterId), uri);
+        }
+
+        // the given pets query URI over every shelter
+        // the results of each shelter are merged and every row has a COLUMN_SHELTER_ID column,
+        // pets queries take filter, sort and limit parameters but not after_id, aggregates are combined
+        // equivalent to "content://com.example.android.pets/shelters/all/pets..."
+        public static Uri scopeToAllShelters(Uri uri) {
+            return prefix(PATH_ALL, uri);
+        }
+
+        // the path of the given URI below shelters/<shelter>, its query parameters unchanged
+        private static Uri prefix(String shelter, Uri uri) {
+            Uri.Builder builder = uri.buildUpon().path(PATH_SHELTERS).appendPath(shelter);
+            for (String segment : uri.getPathSegments()) {
+                builder.appendPath(segment);
+            }
+            return builder.build();
+        }
+
+        // MIME type for a list of shelters
+        // equivalent to "vnd.android.cursor.dir/com.example.android.pets/shelters"
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE +
+                "/" + CONTENT_AUTHORITY + "/" + PATH_SHELTERS;
+
+        // MIME type for a single shelter
+        // equivalent to "vnd.android.cursor.item/com.example.android.pets/shelters"
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE +
+                "/" + CONTENT_AUTHORITY + "/" + PATH_SHELTERS;
+
     }
 
 }
@@ -0,0 +1,99 @@
+package com.example.android.pets.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+// minimal streaming reader and writer for comma separated values as in RFC 4180
+// "final" modifier because class only contains static helpers
+final class PetCsv {
+
+    // empty constructor as no objects of this class will ever be created
+    private PetCsv() {}
+
+    // read the next record, returns null at the end of the input
+    // quoted fields may contain commas, line breaks and doubled quotes, a blank line is a single empty field
+    static List<String> readRecord(Reader reader) throws IOException {
+
+        int c = reader.read();
+        if (c == -1) {
+            return null;
+        }
+
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        while (true) {
+
+            if (quoted) {
+
+                if (c == -1) {
+                    throw new IOException("Unterminated quoted field");
+                }
+
+                if (c == '"') {
+
+                    // a doubled quote is a literal quote, a single one ends the quoted part
+                    c = reader.read();
+                    if (c == '"') {
+                        field.append('"');
+                        c = reader.read();
+                    } else {
+                        quoted = false;
+                    }
+                    continue;
+                }
+
+                field.append((char) c);
+                c = reader.read();
+                continue;
+            }
+
+            if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == -1) {
+                fields.add(field.toString());
+                return fields;
+            } else if (c != '\r') { // carriage returns of CRLF line endings are dropped
+                field.append((char) c);
+            }
+
+            c = reader.read();
+        }
+    }
+
+    // write one record followed by a line break, null fields are written as empty fields
+    static void writeRecord(Writer writer, String[] fields) throws IOException {
+
+        for (int i = 0; i < fields.length; i++) {
+
+            if (i > 0) {
+                writer.write(',');
+            }
+
+            String field = fields[i];
+            if (field == null) {
+                continue;
+            }
+
+            // only fields that would otherwise be misread are quoted
+            if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 ||
+                    field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(field.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(field);
+            }
+        }
+
+        writer.write('\n');
+    }
+
+}
@@ -1,23 +1,331 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import android.util.Log;
 
+import com.example.android.pets.data.PetContract.PetChangeEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
 public class PetDbHelper extends SQLiteOpenHelper {
 
+    // tag for log messages
+    private static final String LOG_TAG = PetDbHelper.class.getSimpleName();
+
+    // fts4 table mirroring the name and breed of every pet, used by full-text search
+    // fts4 rather than fts5 since fts5 is missing from the sqlite builds of older devices
+    static final String FTS_TABLE_NAME = "pets_fts";
+
+    // soft delete flag of the pets table, 1 for a pet that was deleted but not yet purged by PetCompactor
+    // internal to the provider, which hides deleted pets from every query and write
+    static final String COLUMN_DELETED = "deleted";
+
+    // condition that holds for pets that have not been deleted
+    static final String NOT_DELETED = COLUMN_DELETED + " = 0";
+
+    // a single step of the schema history
+    // the step at index i of MIGRATIONS upgrades the database from version i + 1 to version i + 2
+    interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
+
+    // ordered schema history, append new steps at the end and never edit or reorder released ones
+    // onCreate runs every step as well, so new installs and upgraded installs end up with the same schema
+    static final Migration[] MIGRATIONS = {
+
+            // version 2: case insensitive index for name lookups and alphabetical sorting
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS index_pets_name ON " + PetEntry.TABLE_NAME +
+                            " (" + PetEntry.COLUMN_PETS_NAME + " COLLATE NOCASE);");
+                }
+            },
+
+            // version 3: index for breed filters
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS index_pets_breed ON " + PetEntry.TABLE_NAME +
+                            " (" + PetEntry.COLUMN_PETS_BREED + ");");
+                }
+            },
+
+            // version 4: composite index for gender filters, optionally narrowed or sorted by weight
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS index_pets_gender_weight ON " + PetEntry.TABLE_NAME +
+                            " (" + PetEntry.COLUMN_PETS_GENDER + ", " + PetEntry.COLUMN_PETS_WEIGHT + ");");
+                }
+            },
+
+            // version 5: full-text index over name and breed, see FTS_TABLE_NAME
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+
+                    // the docid of each fts row is the _id of the pet it mirrors
+                    db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4(" +
+                            PetEntry.COLUMN_PETS_NAME + ", " + PetEntry.COLUMN_PETS_BREED + ");");
+
+                    // triggers keep the index in sync with every write, whichever path it comes from
+                    db.execSQL("CREATE TRIGGER pets_fts_insert AFTER INSERT ON " + PetEntry.TABLE_NAME +
+                            " BEGIN INSERT INTO " + FTS_TABLE_NAME + " (docid, " +
+                            PetEntry.COLUMN_PETS_NAME + ", " + PetEntry.COLUMN_PETS_BREED + ") VALUES (new." +
+                            PetEntry._ID + ", new." + PetEntry.COLUMN_PETS_NAME + ", new." +
+                            PetEntry.COLUMN_PETS_BREED + "); END;");
+                    db.execSQL("CREATE TRIGGER pets_fts_update AFTER UPDATE OF " +
+                            PetEntry.COLUMN_PETS_NAME + ", " + PetEntry.COLUMN_PETS_BREED + " ON " +
+                            PetEntry.TABLE_NAME + " BEGIN UPDATE " + FTS_TABLE_NAME + " SET " +
+                            PetEntry.COLUMN_PETS_NAME + " = new." + PetEntry.COLUMN_PETS_NAME + ", " +
+                            PetEntry.COLUMN_PETS_BREED + " = new." + PetEntry.COLUMN_PETS_BREED +
+                            " WHERE docid = old." + PetEntry._ID + "; END;");
+                    db.execSQL("CREATE TRIGGER pets_fts_delete AFTER DELETE ON " + PetEntry.TABLE_NAME +
+                            " BEGIN DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old." +
+                            PetEntry._ID + "; END;");
+
+                    // index the pets that already exist
+                    db.execSQL("INSERT INTO " + FTS_TABLE_NAME + " (docid, " + PetEntry.COLUMN_PETS_NAME +
+                            ", " + PetEntry.COLUMN_PETS_BREED + ") SELECT " + PetEntry._ID + ", " +
+                            PetEntry.COLUMN_PETS_NAME + ", " + PetEntry.COLUMN_PETS_BREED + " FROM " +
+                            PetEntry.TABLE_NAME + ";");
+                }
+            },
+
+            // version 6: index for weight ranges and sorting by weight without a gender filter,
+            // it also covers the average weight aggregate
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS index_pets_weight ON " + PetEntry.TABLE_NAME +
+                            " (" + PetEntry.COLUMN_PETS_WEIGHT + ");");
+                }
+            },
+
+            // version 7: row version for optimistic concurrency, see PetEntry.COLUMN_PETS_VERSION
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+
+                    db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " +
+                            PetEntry.COLUMN_PETS_VERSION + " INTEGER NOT NULL DEFAULT 1;");
+
+                    // a trigger bumps the version on every update, whichever path it comes from,
+                    // and writers serialize on the database so a check of the old version is atomic with it
+                    db.execSQL("CREATE TRIGGER pets_version AFTER UPDATE OF " + PetEntry.COLUMN_PETS_NAME + ", " +
+                            PetEntry.COLUMN_PETS_BREED + ", " + PetEntry.COLUMN_PETS_GENDER + ", " +
+                            PetEntry.COLUMN_PETS_WEIGHT + " ON " + PetEntry.TABLE_NAME + " BEGIN UPDATE " +
+                            PetEntry.TABLE_NAME + " SET " + PetEntry.COLUMN_PETS_VERSION + " = old." +
+                            PetEntry.COLUMN_PETS_VERSION + " + 1 WHERE " + PetEntry._ID + " = new." +
+                            PetEntry._ID + "; END;");
+                }
+            },
+
+            // version 8: soft delete flag, see COLUMN_DELETED
+            // it is left out of the indexes, filtering it costs a lookup of rows the index scan visits anyway
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " + COLUMN_DELETED +
+                            " INTEGER NOT NULL DEFAULT 0;");
+                }
+            },
+
+            // version 9: change log for sync, see PetChangeEntry
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+
+                    // AUTOINCREMENT so a sequence number is never handed out twice, even after the log is trimmed
+                    db.execSQL("CREATE TABLE " + PetChangeEntry.TABLE_NAME + " (" +
+                            PetChangeEntry.COLUMN_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            PetChangeEntry.COLUMN_PET_ID + " INTEGER NOT NULL, " +
+                            PetChangeEntry.COLUMN_OPERATION + " INTEGER NOT NULL);");
+
+                    // the pending changes of one pet are looked up when a remote change to it arrives
+                    db.execSQL("CREATE INDEX index_pets_changes_pet_id ON " + PetChangeEntry.TABLE_NAME +
+                            " (" + PetChangeEntry.COLUMN_PET_ID + ");");
+
+                    // like the fts index, the log is kept by triggers so no write path can skip it
+                    createChangeLogTriggers(db, false);
+                }
+            },
+
+            // version 10: partial index of the deleted pets, so PetCompactor finds the few rows waiting to be
+            // purged without scanning the table, it only holds deleted rows and costs live writes nothing
+            // partial indexes came with sqlite 3.8.0, older builds (before android 5.0) keep scanning
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    if (supportsPartialIndexes(db)) {
+                        db.execSQL("CREATE INDEX IF NOT EXISTS index_pets_deleted ON " + PetEntry.TABLE_NAME +
+                                " (" + PetEntry._ID + ") WHERE " + COLUMN_DELETED + " = 1;");
+                    }
+                }
+            },
+
+            // version 11: identity of every pet across devices for sync, see PetEntry.COLUMN_PETS_UUID
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+
+                    // pets that already exist get an identity here, the provider gives one to every pet it inserts
+                    // sqlite has no uuid function, 16 random bytes in hex have the same form as newPetUuid
+                    db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " + PetEntry.COLUMN_PETS_UUID +
+                            " TEXT;");
+                    db.execSQL("UPDATE " + PetEntry.TABLE_NAME + " SET " + PetEntry.COLUMN_PETS_UUID +
+                            " = lower(hex(randomblob(16)));");
+
+                    // a pulled pet is found by its uuid
+                    db.execSQL("CREATE UNIQUE INDEX index_pets_uuid ON " + PetEntry.TABLE_NAME + " (" +
+                            PetEntry.COLUMN_PETS_UUID + ");");
+
+                    // pending changes of pets already purged have no uuid left to be pushed under
+                    db.execSQL("ALTER TABLE " + PetChangeEntry.TABLE_NAME + " ADD COLUMN " +
+                            PetChangeEntry.COLUMN_PET_UUID + " TEXT;");
+                    db.execSQL("UPDATE " + PetChangeEntry.TABLE_NAME + " SET " + PetChangeEntry.COLUMN_PET_UUID +
+                            " = (SELECT " + PetEntry.COLUMN_PETS_UUID + " FROM " + PetEntry.TABLE_NAME + " WHERE " +
+                            PetEntry._ID + " = " + PetChangeEntry.COLUMN_PET_ID + ");");
+                    db.execSQL("DELETE FROM " + PetChangeEntry.TABLE_NAME + " WHERE " +
+                            PetChangeEntry.COLUMN_PET_UUID + " IS NULL;");
+
+                    // the pending change of a pulled pet is looked up by its uuid
+                    db.execSQL("CREATE INDEX index_pets_changes_pet_uuid ON " + PetChangeEntry.TABLE_NAME +
+                            " (" + PetChangeEntry.COLUMN_PET_UUID + ");");
+
+                    // from now on the triggers log the uuid along with the _ID
+                    db.execSQL("DROP TRIGGER pets_changes_insert;");
+                    db.execSQL("DROP TRIGGER pets_changes_update;");
+                    db.execSQL("DROP TRIGGER pets_changes_delete;");
+                    createChangeLogTriggers(db, true);
+                }
+            }
+    };
+
+    // a new value for PetEntry.COLUMN_PETS_UUID, 32 lower case hex digits
+    static String newPetUuid() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    // create the triggers that append every insert, update and delete of a pet to the change log,
+    // with the uuid of the pet from version 11 on
+    // a soft delete is the delete of a pet, the purge that follows it is not logged again
+    private static void createChangeLogTriggers(SQLiteDatabase db, boolean logUuid) {
+        db.execSQL("CREATE TRIGGER pets_changes_insert AFTER INSERT ON " + PetEntry.TABLE_NAME +
+                " BEGIN " + logChange("new", PetChangeEntry.OPERATION_INSERT, logUuid) + " END;");
+        db.execSQL("CREATE TRIGGER pets_changes_update AFTER UPDATE OF " +
+                PetEntry.COLUMN_PETS_NAME + ", " + PetEntry.COLUMN_PETS_BREED + ", " +
+                PetEntry.COLUMN_PETS_GENDER + ", " + PetEntry.COLUMN_PETS_WEIGHT + " ON " +
+                PetEntry.TABLE_NAME + " BEGIN " + logChange("new", PetChangeEntry.OPERATION_UPDATE, logUuid) +
+                " END;");
+        db.execSQL("CREATE TRIGGER pets_changes_delete AFTER UPDATE OF " + COLUMN_DELETED + " ON " +
+                PetEntry.TABLE_NAME + " WHEN new." + COLUMN_DELETED + " = 1 AND old." +
+                COLUMN_DELETED + " = 0 BEGIN " + logChange("new", PetChangeEntry.OPERATION_DELETE, logUuid) +
+                " END;");
+    }
+
+    // true if the sqlite library of the device accepts CREATE INDEX ... WHERE, from version 3.8.0 on
+    static boolean supportsPartialIndexes(SQLiteDatabase db) {
+
+        String[] version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null).split("\\.");
+        int major = Integer.parseInt(version[0]);
+        int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+        return major > 3 || (major == 3 && minor >= 8);
+    }
+
+    // trigger statement appending a change of the pet in the given trigger row to the change log
+    private static String logChange(String row, int operation, boolean logUuid) {
+        if (!logUuid) {
+            return "INSERT INTO " + PetChangeEntry.TABLE_NAME + " (" + PetChangeEntry.COLUMN_PET_ID + ", " +
+                    PetChangeEntry.COLUMN_OPERATION + ") VALUES (" + row + "." + PetEntry._ID + ", " + operation + ");";
+        }
+        return "INSERT INTO " + PetChangeEntry.TABLE_NAME + " (" + PetChangeEntry.COLUMN_PET_ID + ", " +
+                PetChangeEntry.COLUMN_PET_UUID + ", " + PetChangeEntry.COLUMN_OPERATION + ") VALUES (" + row + "." +
+                PetEntry._ID + ", " + row + "." + PetEntry.COLUMN_PETS_UUID + ", " + operation + ");";
+    }
+
     // established convention that a database version begins at 1
+    // version 1 is the original pets table, every migration adds one version
+    // shelter.db holds the default shelter, every other shelter has a file of its own, see databaseName
     private static final String DATABASE_NAME = "shelter.db";
-    private static final int DATABASE_VERSION = 1;
 
-    // defer to superclass constructor
+    // name of the database file of any shelter but the default one
+    private static final String SHELTER_DATABASE_PREFIX = "shelter_";
+    private static final String SHELTER_DATABASE_SUFFIX = ".db";
+    static final int DATABASE_VERSION = MIGRATIONS.length + 1;
+
+    // first SDK with SQLiteDatabase.execPerConnectionSQL, Build.VERSION_CODES.R, above the compile SDK of this app
+    private static final int SDK_EXEC_PER_CONNECTION_SQL = 30;
+
+    // SQLiteDatabase.execPerConnectionSQL, looked up by name since the compile SDK does not have it,
+    // null below SDK_EXEC_PER_CONNECTION_SQL
+    private static final Method EXEC_PER_CONNECTION_SQL = findExecPerConnectionSql();
+
+    // pragmas reported by getActiveSettings, in the order they are reported
+    private static final String[] DIAGNOSTIC_PRAGMAS =
+            {"journal_mode", "synchronous", "cache_size", "mmap_size", "temp_store"};
+
+    // journal mode and pragmas applied each time the database is opened
+    private final PetDbSettings mSettings;
+
+    // open shelter.db with the default settings
     public PetDbHelper(Context context) {
+        this(context, PetDbSettings.DEFAULT);
+    }
+
+    // open shelter.db with the given settings and the default cursors
+    public PetDbHelper(Context context, PetDbSettings settings) {
+        this(context, settings, null);
+    }
+
+    // open shelter.db with the given settings
+    // every query creates its cursor through the factory, null for plain SQLiteCursors
+    public PetDbHelper(Context context, PetDbSettings settings, SQLiteDatabase.CursorFactory cursorFactory) {
+        this(context, DATABASE_NAME, settings, cursorFactory);
+    }
+
+    // defer to superclass constructor, name is the database file, see databaseName
+    public PetDbHelper(Context context, String name, PetDbSettings settings,
+                       SQLiteDatabase.CursorFactory cursorFactory) {
 
         // this constructor calls onCreate only if the database does not already exist on the device
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        super(context, name, cursorFactory, DATABASE_VERSION);
+        mSettings = settings;
+    }
+
+    // name of the database file of the given shelter
+    public static String databaseName(long shelterId) {
+        if (shelterId == PetContract.ShelterEntry.DEFAULT_SHELTER_ID) {
+            return DATABASE_NAME;
+        }
+        return SHELTER_DATABASE_PREFIX + shelterId + SHELTER_DATABASE_SUFFIX;
+    }
+
+    // shelter whose database file has the given name, or -1 if it is not a shelter database
+    public static long shelterIdOf(String name) {
+        if (DATABASE_NAME.equals(name)) {
+            return PetContract.ShelterEntry.DEFAULT_SHELTER_ID;
+        }
+        if (!name.startsWith(SHELTER_DATABASE_PREFIX) || !name.endsWith(SHELTER_DATABASE_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SHELTER_DATABASE_PREFIX.length(),
+                    name.length() - SHELTER_DATABASE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
     // create new sqlite database on device
@@ -36,12 +344,147 @@ public class PetDbHelper extends SQLiteOpenHelper {
 
         db.execSQL(SQL_CREATE_PETS_TABLE);
 
+        // bring the version 1 table up to the current schema
+        migrate(db, 1, DATABASE_VERSION);
+
     }
 
     // update existing sqlite database on device
+    // the framework already runs this inside a transaction, so a failed step leaves the old version intact
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 
+        Log.i(LOG_TAG, "Upgrading " + getDatabaseName() + " from version " + oldVersion + " to " + newVersion);
+        migrate(db, oldVersion, newVersion);
+
+    }
+
+    // apply the journal mode and pragmas each time the database is opened
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+
+        super.onOpen(db);
+
+        // a read-only fallback database cannot change its journal mode or sync behavior
+        if (db.isReadOnly()) {
+            return;
+        }
+
+        // in WAL mode a writer no longer blocks readers, and the framework serves reads
+        // from a pool of extra connections so loaders do not wait on the primary connection
+        if (mSettings.writeAheadLogging) {
+            db.enableWriteAheadLogging();
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            db.disableWriteAheadLogging();
+        }
+
+        // synchronous is per connection and only matters for commits, which all run on the primary connection
+        runPragma(db, "PRAGMA synchronous = " + mSettings.synchronous);
+
+        // these are per connection as well, and in WAL mode the catalog reads on pooled read connections,
+        // which only get them through execPerConnectionSQL, along with connections the pool opens later
+        // below API 30 they only reach the primary connection, and pooled reads keep sqlite's defaults
+        // a negative cache size is a size in kibibytes rather than in pages
+        runPragmaOnEveryConnection(db, "PRAGMA cache_size = " + (-mSettings.cacheSizeKib));
+        runPragmaOnEveryConnection(db, "PRAGMA mmap_size = " + mSettings.mmapSizeBytes);
+        runPragmaOnEveryConnection(db, "PRAGMA temp_store = " + mSettings.tempStore);
+
+    }
+
+    // the settings this helper was created with
+    public PetDbSettings getSettings() {
+        return mSettings;
+    }
+
+    // read back the journal mode and pragmas actually in effect on the primary connection, for logs and diagnostics
+    // sqlite reports synchronous and temp_store as numbers, see the sqlite pragma documentation
+    public Map<String, String> getActiveSettings() {
+
+        SQLiteDatabase db = getReadableDatabase();
+        Map<String, String> active = new LinkedHashMap<String, String>();
+
+        // a transaction holds the primary connection, otherwise any pooled read connection could answer
+        // a read-only database only has its primary connection
+        boolean inTransaction = !db.isReadOnly();
+        if (inTransaction) {
+            db.beginTransactionNonExclusive();
+        }
+        try {
+            for (String pragma : DIAGNOSTIC_PRAGMAS) {
+                Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+                try {
+                    active.put(pragma, cursor.moveToFirst() ? cursor.getString(0) : null);
+                } finally {
+                    cursor.close();
+                }
+            }
+        } finally {
+            if (inTransaction) {
+                db.endTransaction();
+            }
+        }
+
+        return active;
+    }
+
+    // run a pragma on every connection of the database, the open ones and those opened later,
+    // or only on the primary connection where execPerConnectionSQL is missing
+    private static void runPragmaOnEveryConnection(SQLiteDatabase db, String pragma) {
+
+        if (EXEC_PER_CONNECTION_SQL == null) {
+            runPragma(db, pragma);
+            return;
+        }
+
+        try {
+            EXEC_PER_CONNECTION_SQL.invoke(db, pragma, null);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Cannot run " + pragma, e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot run " + pragma, e);
+        }
+    }
+
+    // SQLiteDatabase.execPerConnectionSQL(String, Object[]) where the SDK has it, or else null
+    private static Method findExecPerConnectionSql() {
+
+        if (Build.VERSION.SDK_INT < SDK_EXEC_PER_CONNECTION_SQL) {
+            return null;
+        }
+
+        try {
+            return SQLiteDatabase.class.getMethod("execPerConnectionSQL", String.class, Object[].class);
+        } catch (NoSuchMethodException e) {
+            Log.w(LOG_TAG, "execPerConnectionSQL missing, pragmas only reach the primary connection", e);
+            return null;
+        }
+    }
+
+    // run a pragma through rawQuery, since execSQL rejects pragmas that report their new value as a row
+    static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // run the migration steps that take the database from one version to another, in order
+    static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+
+        if (fromVersion < 1 || toVersion > MIGRATIONS.length + 1 || fromVersion > toVersion) {
+            throw new IllegalArgumentException("No migration path from version " + fromVersion +
+                    " to " + toVersion);
+        }
+
+        // the step at index version - 1 upgrades from version to version + 1
+        for (int version = fromVersion; version < toVersion; version++) {
+            MIGRATIONS[version - 1].migrate(db);
+        }
     }
 
 }
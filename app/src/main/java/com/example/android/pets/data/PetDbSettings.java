@@ -0,0 +1,74 @@
+package com.example.android.pets.data;
+
+// tuning options for shelter.db, applied by PetDbHelper every time the database is opened
+// "final" modifier because instances are immutable values
+public final class PetDbSettings {
+
+    // values for PRAGMA synchronous
+    // NORMAL is durable in WAL mode except for the last commits before a power loss
+    public static final String SYNCHRONOUS_OFF = "OFF";
+    public static final String SYNCHRONOUS_NORMAL = "NORMAL";
+    public static final String SYNCHRONOUS_FULL = "FULL";
+
+    // values for PRAGMA temp_store, where temporary tables and indices for sorting are kept
+    public static final String TEMP_STORE_DEFAULT = "DEFAULT";
+    public static final String TEMP_STORE_FILE = "FILE";
+    public static final String TEMP_STORE_MEMORY = "MEMORY";
+
+    // settings used when a caller does not ask for anything else
+    // write-ahead logging so readers and the writer do not block each other, a 2 MiB page cache per
+    // connection, in-memory temp store for sorts, and memory mapping left off as in SQLite itself
+    public static final PetDbSettings DEFAULT =
+            new PetDbSettings(true, SYNCHRONOUS_NORMAL, 2048, 0, TEMP_STORE_MEMORY);
+
+    // journal mode WAL when true, rollback journal when false
+    public final boolean writeAheadLogging;
+
+    // one of the SYNCHRONOUS_ constants
+    public final String synchronous;
+
+    // page cache size in kibibytes
+    public final int cacheSizeKib;
+
+    // maximum number of bytes of the database file to memory map, 0 disables memory mapping
+    public final long mmapSizeBytes;
+
+    // one of the TEMP_STORE_ constants
+    public final String tempStore;
+
+    public PetDbSettings(boolean writeAheadLogging, String synchronous, int cacheSizeKib,
+                         long mmapSizeBytes, String tempStore) {
+
+        // these values are concatenated into PRAGMA statements, so only known values are accepted
+        if (!SYNCHRONOUS_OFF.equals(synchronous) && !SYNCHRONOUS_NORMAL.equals(synchronous) &&
+                !SYNCHRONOUS_FULL.equals(synchronous)) {
+            throw new IllegalArgumentException("Unknown synchronous mode: " + synchronous);
+        }
+        if (!TEMP_STORE_DEFAULT.equals(tempStore) && !TEMP_STORE_FILE.equals(tempStore) &&
+                !TEMP_STORE_MEMORY.equals(tempStore)) {
+            throw new IllegalArgumentException("Unknown temp store: " + tempStore);
+        }
+        if (cacheSizeKib <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + cacheSizeKib);
+        }
+        if (mmapSizeBytes < 0) {
+            throw new IllegalArgumentException("Memory map size cannot be negative: " + mmapSizeBytes);
+        }
+
+        this.writeAheadLogging = writeAheadLogging;
+        this.synchronous = synchronous;
+        this.cacheSizeKib = cacheSizeKib;
+        this.mmapSizeBytes = mmapSizeBytes;
+        this.tempStore = tempStore;
+    }
+
+    @Override
+    public String toString() {
+        return "PetDbSettings{writeAheadLogging=" + writeAheadLogging +
+                ", synchronous=" + synchronous +
+                ", cacheSizeKib=" + cacheSizeKib +
+                ", mmapSizeBytes=" + mmapSizeBytes +
+                ", tempStore=" + tempStore + "}";
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.example.android.pets.data;
+
+// one change to one pet as exchanged with the sync server
+// "final" modifier because instances are immutable values
+public final class PetDelta {
+
+    // sequence number of the change, in the log of whoever sent it
+    // the local change log for pushed deltas, the server log for pulled ones
+    public final long sequence;
+
+    // PetEntry.COLUMN_PETS_UUID of the changed pet, the same on every device
+    public final String petUuid;
+
+    // state of the pet after the change, null if the change deleted it
+    // its id is the _ID on the device the change was made on, which means nothing on any other device
+    public final Pet pet;
+
+    // client id of the device the change was made on
+    public final String origin;
+
+    public PetDelta(long sequence, String petUuid, Pet pet, String origin) {
+        this.sequence = sequence;
+        this.petUuid = petUuid;
+        this.pet = pet;
+        this.origin = origin;
+    }
+
+    // true if the change deleted the pet
+    public boolean isDelete() {
+        return pet == null;
+    }
+
+    @Override
+    public String toString() {
+        return "PetDelta{sequence=" + sequence + ", petUuid=" + petUuid + ", pet=" + pet + ", origin=" + origin +
+                "}";
+    }
+
+}
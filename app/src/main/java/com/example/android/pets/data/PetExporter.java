@@ -0,0 +1,126 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+// streams the pets table into a CSV or JSON lines file
+// rows are read one keyset page at a time, so memory stays bounded by the page size whatever the table size,
+// and progress is reported after every page so a failed export can be resumed by appending to the output
+public class PetExporter {
+
+    // pages are read through the provider like any other query
+    private final ContentResolver mResolver;
+
+    // rows read per query
+    private final int mPageSize;
+
+    public PetExporter(ContentResolver resolver, int pageSize) {
+
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+
+        mResolver = resolver;
+        mPageSize = pageSize;
+    }
+
+    // write every pet whose _ID is greater than afterId in _ID order, listener may be null
+    // pass 0 as afterId for a new export, the CSV header is only written in that case
+    // returns the number of rows written, the output stream is flushed but not closed
+    public long exportPets(OutputStream out, int format, long afterId, PetTransfer.ExportListener listener)
+            throws IOException {
+
+        if (!PetTransfer.isValidFormat(format)) {
+            throw new IllegalArgumentException("Unknown transfer format: " + format);
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+
+        // a resumed export appends to a file that already has its header
+        if (format == PetTransfer.FORMAT_CSV && afterId == 0) {
+            PetCsv.writeRecord(writer, PetTransfer.COLUMNS);
+        }
+
+        String[] fields = new String[PetTransfer.COLUMNS.length];
+        long rowsWritten = 0;
+        long lastId = afterId;
+
+        while (true) {
+
+            Cursor page = mResolver.query(PetEntry.buildPageUri(lastId, mPageSize), PetTransfer.COLUMNS,
+                    null, null, null);
+            if (page == null) {
+                throw new IOException("Query failed after _ID " + lastId);
+            }
+
+            int pageCount;
+            try {
+                pageCount = page.getCount();
+
+                while (page.moveToNext()) {
+
+                    if (format == PetTransfer.FORMAT_CSV) {
+
+                        // the projection is PetTransfer.COLUMNS, so column indices match the field order
+                        for (int i = 0; i < fields.length; i++) {
+                            fields[i] = page.getString(i);
+                        }
+                        PetCsv.writeRecord(writer, fields);
+
+                    } else {
+                        writeJsonLine(writer, page);
+                    }
+
+                    lastId = page.getLong(0);
+                }
+            } finally {
+                page.close();
+            }
+
+            rowsWritten += pageCount;
+
+            // everything up to lastId is in the output once the page is flushed
+            writer.flush();
+            if (listener != null && pageCount > 0) {
+                listener.onPageWritten(rowsWritten, lastId);
+            }
+
+            // a short page is the end of the table
+            if (pageCount < mPageSize) {
+                break;
+            }
+        }
+
+        return rowsWritten;
+    }
+
+    // write the current row of the page as one JSON object followed by a line break
+    private static void writeJsonLine(Writer writer, Cursor page) throws IOException {
+
+        JSONObject object = new JSONObject();
+        try {
+            object.put(PetEntry._ID, page.getLong(0));
+            object.put(PetEntry.COLUMN_PETS_NAME, page.getString(1));
+            object.put(PetEntry.COLUMN_PETS_BREED, page.isNull(2) ? JSONObject.NULL : page.getString(2));
+            object.put(PetEntry.COLUMN_PETS_GENDER, page.getInt(3));
+            object.put(PetEntry.COLUMN_PETS_WEIGHT, page.getInt(4));
+        } catch (JSONException e) {
+            throw new IOException("Cannot encode pet " + page.getLong(0) + ": " + e.getMessage());
+        }
+
+        writer.write(object.toString());
+        writer.write('\n');
+    }
+
+}
@@ -0,0 +1,244 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// streams pets from a CSV or JSON lines file into the provider
+// only one record and one batch are held in memory, each batch is committed in a single transaction
+// through bulkInsert, and progress is reported after every batch so a failed import can be resumed
+public class PetImporter {
+
+    // inserts go through the provider so observers are notified as usual
+    private final ContentResolver mResolver;
+
+    // pets committed per transaction
+    private final int mBatchSize;
+
+    public PetImporter(ContentResolver resolver, int batchSize) {
+
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+
+        mResolver = resolver;
+        mBatchSize = batchSize;
+    }
+
+    // import every pet after the first skipRecords records of the input, listener may be null
+    // returns the number of records committed counting from the start of the input
+    // a record that fails validation stops the import, batches committed before it are kept
+    public long importPets(InputStream in, int format, long skipRecords, PetTransfer.ImportListener listener)
+            throws IOException {
+
+        if (!PetTransfer.isValidFormat(format)) {
+            throw new IllegalArgumentException("Unknown transfer format: " + format);
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+
+        // header of the CSV input, column name to field index, unused for JSON lines
+        Map<String, Integer> header = null;
+        if (format == PetTransfer.FORMAT_CSV) {
+            header = readHeader(reader);
+        }
+
+        List<ContentValues> batch = new ArrayList<ContentValues>(mBatchSize);
+
+        // records read so far, and records known to be in the database
+        long recordNumber = 0;
+        long committed = skipRecords;
+
+        while (true) {
+
+            ContentValues values = format == PetTransfer.FORMAT_CSV
+                    ? readCsvPet(reader, header, recordNumber + 1)
+                    : readJsonPet(reader, recordNumber + 1);
+
+            if (values == null) {
+                break;
+            }
+
+            recordNumber++;
+
+            // already committed by the import being resumed
+            if (recordNumber <= skipRecords) {
+                continue;
+            }
+
+            // same rules as the provider, checked here so the failing record can be named
+            try {
+                PetProvider.validatePet(values);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid pet at record " + recordNumber + ": " +
+                        e.getMessage(), e);
+            }
+
+            batch.add(values);
+
+            if (batch.size() == mBatchSize) {
+                committed += commit(batch);
+                if (listener != null) {
+                    listener.onBatchCommitted(committed);
+                }
+            }
+        }
+
+        // the last, partial batch
+        if (!batch.isEmpty()) {
+            committed += commit(batch);
+            if (listener != null) {
+                listener.onBatchCommitted(committed);
+            }
+        }
+
+        return committed;
+    }
+
+    // insert the batch in a single transaction and clear it for reuse
+    private int commit(List<ContentValues> batch) {
+        int inserted = mResolver.bulkInsert(PetEntry.CONTENT_URI, batch.toArray(new ContentValues[batch.size()]));
+        batch.clear();
+        return inserted;
+    }
+
+    // read the CSV header row into a map of column name to field index
+    private static Map<String, Integer> readHeader(BufferedReader reader) throws IOException {
+
+        List<String> names = PetCsv.readRecord(reader);
+        if (names == null) {
+            throw new IOException("CSV input has no header row");
+        }
+
+        Map<String, Integer> header = new HashMap<String, Integer>();
+        for (int i = 0; i < names.size(); i++) {
+            header.put(names.get(i).trim(), i);
+        }
+
+        // columns without a default in the pets table
+        if (!header.containsKey(PetEntry.COLUMN_PETS_NAME) || !header.containsKey(PetEntry.COLUMN_PETS_GENDER)) {
+            throw new IOException("CSV header requires " + PetEntry.COLUMN_PETS_NAME + " and " +
+                    PetEntry.COLUMN_PETS_GENDER + " columns: " + names);
+        }
+
+        return header;
+    }
+
+    // read the next CSV record as content values, skipping blank lines, null at the end of the input
+    private static ContentValues readCsvPet(BufferedReader reader, Map<String, Integer> header, long recordNumber)
+            throws IOException {
+
+        List<String> fields;
+        do {
+            fields = PetCsv.readRecord(reader);
+            if (fields == null) {
+                return null;
+            }
+        } while (fields.size() == 1 && fields.get(0).trim().isEmpty());
+
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PETS_NAME, field(fields, header, PetEntry.COLUMN_PETS_NAME));
+        values.put(PetEntry.COLUMN_PETS_BREED, field(fields, header, PetEntry.COLUMN_PETS_BREED));
+
+        try {
+            values.put(PetEntry.COLUMN_PETS_GENDER,
+                    parseNumber(field(fields, header, PetEntry.COLUMN_PETS_GENDER)));
+
+            // a missing weight is left out so the column default applies
+            Integer weight = parseNumber(field(fields, header, PetEntry.COLUMN_PETS_WEIGHT));
+            if (weight != null) {
+                values.put(PetEntry.COLUMN_PETS_WEIGHT, weight);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number at record " + recordNumber + ": " +
+                    e.getMessage(), e);
+        }
+
+        return values;
+    }
+
+    // value of the named column in a CSV record, null if the column or the value is missing
+    private static String field(List<String> fields, Map<String, Integer> header, String column) {
+
+        Integer index = header.get(column);
+        if (index == null || index >= fields.size()) {
+            return null;
+        }
+
+        String value = fields.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    // integer value of a CSV field, null for a missing value
+    private static Integer parseNumber(String value) {
+        return value == null ? null : Integer.valueOf(value);
+    }
+
+    // read the next JSON line as content values, skipping blank lines, null at the end of the input
+    private static ContentValues readJsonPet(BufferedReader reader, long recordNumber) throws IOException {
+
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+        } while (line.trim().isEmpty());
+
+        JSONObject object;
+        try {
+            object = new JSONObject(line);
+        } catch (JSONException e) {
+            throw new IOException("Malformed JSON at record " + recordNumber + ": " + e.getMessage());
+        }
+
+        // validation rejects anything that is not a valid pet
+        ContentValues values = new ContentValues();
+        if (!object.isNull(PetEntry.COLUMN_PETS_NAME)) {
+            values.put(PetEntry.COLUMN_PETS_NAME, object.optString(PetEntry.COLUMN_PETS_NAME));
+        }
+        if (!object.isNull(PetEntry.COLUMN_PETS_BREED)) {
+            String breed = object.optString(PetEntry.COLUMN_PETS_BREED);
+            values.put(PetEntry.COLUMN_PETS_BREED, TextUtils.isEmpty(breed) ? null : breed);
+        }
+        try {
+            if (!object.isNull(PetEntry.COLUMN_PETS_GENDER)) {
+                values.put(PetEntry.COLUMN_PETS_GENDER, jsonNumber(object, PetEntry.COLUMN_PETS_GENDER));
+            }
+
+            // a missing weight is left out so the column default applies
+            if (!object.isNull(PetEntry.COLUMN_PETS_WEIGHT)) {
+                values.put(PetEntry.COLUMN_PETS_WEIGHT, jsonNumber(object, PetEntry.COLUMN_PETS_WEIGHT));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number at record " + recordNumber + ": " +
+                    e.getMessage(), e);
+        }
+
+        return values;
+    }
+
+    // integer value of a JSON member given either as a number or as a string
+    private static Integer jsonNumber(JSONObject object, String key) {
+        Object value = object.opt(key);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        return Integer.valueOf(String.valueOf(value).trim());
+    }
+
+}
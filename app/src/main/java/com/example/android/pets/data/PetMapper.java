@@ -0,0 +1,94 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+// maps rows of a cursor to Pet values, and Pet values to statement arguments
+// column indices are resolved once per cursor instead of looked up by name for every row,
+// and writes bind primitives straight to the statement instead of boxing them into ContentValues
+// the provider's inserts receive ContentValues from the resolver, they convert each row to a Pet once
+// while validating it and bind that, rather than looking up and unboxing values again while binding
+public final class PetMapper {
+
+    // every column of a pet, a projection that read can map
+    public static final String[] COLUMNS = {PetEntry._ID, PetEntry.COLUMN_PETS_NAME, PetEntry.COLUMN_PETS_BREED,
+            PetEntry.COLUMN_PETS_GENDER, PetEntry.COLUMN_PETS_WEIGHT, PetEntry.COLUMN_PETS_VERSION};
+
+    // columns bound by bind, in argument order
+    // the version is maintained by the database and never written
+    public static final String[] WRITE_COLUMNS = {PetEntry.COLUMN_PETS_NAME, PetEntry.COLUMN_PETS_BREED,
+            PetEntry.COLUMN_PETS_GENDER, PetEntry.COLUMN_PETS_WEIGHT};
+
+    // indices of the columns in the cursor this mapper was made for
+    private final int mIdIndex;
+    private final int mNameIndex;
+    private final int mBreedIndex;
+    private final int mGenderIndex;
+    private final int mWeightIndex;
+    private final int mVersionIndex;
+
+    // resolve the column indices of the cursor, which must contain every column in COLUMNS
+    public PetMapper(Cursor cursor) {
+        mIdIndex = cursor.getColumnIndexOrThrow(PetEntry._ID);
+        mNameIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PETS_NAME);
+        mBreedIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PETS_BREED);
+        mGenderIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PETS_GENDER);
+        mWeightIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PETS_WEIGHT);
+        mVersionIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PETS_VERSION);
+    }
+
+    // the pet at the current position of the cursor this mapper was made for
+    public Pet read(Cursor cursor) {
+        return new Pet(cursor.getLong(mIdIndex), cursor.getString(mNameIndex), cursor.getString(mBreedIndex),
+                cursor.getInt(mGenderIndex), cursor.getInt(mWeightIndex), cursor.getLong(mVersionIndex));
+    }
+
+    // bind the pet to the first arguments of a statement written for WRITE_COLUMNS
+    // returns the index of the next free argument, where an UPDATE_BY_ID statement takes the _id
+    public static int bind(SQLiteStatement statement, Pet pet) {
+
+        statement.bindString(1, pet.name);
+
+        // the breed value can be null
+        if (pet.breed == null) {
+            statement.bindNull(2);
+        } else {
+            statement.bindString(2, pet.breed);
+        }
+
+        statement.bindLong(3, pet.gender);
+        statement.bindLong(4, pet.weight);
+        return WRITE_COLUMNS.length + 1;
+    }
+
+    // a new pet from validated content values, the inverse of toContentValues
+    // a missing breed or weight takes the same default as the column definition, any column outside
+    // WRITE_COLUMNS is rejected rather than silently dropped
+    static Pet fromContentValues(ContentValues values) {
+
+        for (String column : values.keySet()) {
+            if (!PetEntry.COLUMN_PETS_NAME.equals(column) && !PetEntry.COLUMN_PETS_BREED.equals(column) &&
+                    !PetEntry.COLUMN_PETS_GENDER.equals(column) && !PetEntry.COLUMN_PETS_WEIGHT.equals(column)) {
+                throw new IllegalArgumentException("Unknown column: " + column);
+            }
+        }
+
+        Integer weight = values.getAsInteger(PetEntry.COLUMN_PETS_WEIGHT);
+        return new Pet(0, values.getAsString(PetEntry.COLUMN_PETS_NAME), values.getAsString(PetEntry.COLUMN_PETS_BREED),
+                values.getAsInteger(PetEntry.COLUMN_PETS_GENDER), weight == null ? 0 : weight, 1);
+    }
+
+    // the pet as content values for a content resolver, which can only carry writes as ContentValues
+    public static ContentValues toContentValues(Pet pet) {
+        ContentValues values = new ContentValues(WRITE_COLUMNS.length);
+        values.put(PetEntry.COLUMN_PETS_NAME, pet.name);
+        values.put(PetEntry.COLUMN_PETS_BREED, pet.breed);
+        values.put(PetEntry.COLUMN_PETS_GENDER, pet.gender);
+        values.put(PetEntry.COLUMN_PETS_WEIGHT, pet.weight);
+        return values;
+    }
+
+}
@@ -0,0 +1,229 @@
+package com.example.android.pets.data;
+
+import android.database.MatrixCursor;
+import android.os.Build;
+import android.os.Trace;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// latency histograms and row counts for every provider operation on every kind of URI,
+// plus cursor window fills and change notifications, cheap enough to stay on in release builds
+// recording takes two clock reads and a few atomic increments into preallocated counters, nothing is
+// allocated or locked, and each operation also runs inside a systrace section named after it
+// sections go straight to android.os.Trace rather than through the support library, which the JVM
+// benchmarks do not have on their classpath, and are skipped before android 4.3 where it does not exist
+public class PetMetrics {
+
+    // operations, the first index of the counters
+    public static final int QUERY = 0;
+    public static final int INSERT = 1;
+    public static final int BULK_INSERT = 2;
+    public static final int UPDATE = 3;
+    public static final int DELETE = 4;
+    public static final int APPLY_BATCH = 5;
+    public static final int OPEN_FILE = 6;
+
+    private static final String[] OPERATION_NAMES =
+            {"query", "insert", "bulkInsert", "update", "delete", "applyBatch", "openFile"};
+
+    // columns of the cursor returned by toCursor, latencies are in microseconds
+    public static final String COLUMN_OPERATION = "operation";
+    public static final String COLUMN_URI = "uri";
+    public static final String COLUMN_CALLS = "calls";
+    public static final String COLUMN_ROWS = "rows";
+    public static final String COLUMN_MEAN_MICROS = "mean_us";
+    public static final String COLUMN_P50_MICROS = "p50_us";
+    public static final String COLUMN_P90_MICROS = "p90_us";
+    public static final String COLUMN_P99_MICROS = "p99_us";
+    public static final String COLUMN_MAX_MICROS = "max_us";
+
+    private static final String[] COLUMNS = {COLUMN_OPERATION, COLUMN_URI, COLUMN_CALLS, COLUMN_ROWS,
+            COLUMN_MEAN_MICROS, COLUMN_P50_MICROS, COLUMN_P90_MICROS, COLUMN_P99_MICROS, COLUMN_MAX_MICROS};
+
+    // bucket i of a histogram counts latencies below 2^i microseconds that do not fit bucket i - 1,
+    // the last bucket takes everything from about 35 minutes up
+    private static final int BUCKETS = 32;
+
+    // names of the kinds of URI, the second index of the counters
+    private final String[] mUriNames;
+
+    // trace section names, built once so tracing never allocates
+    private final String[][] mSectionNames;
+
+    // counters per operation and URI kind
+    private final Stats[][] mStats;
+
+    // cursor windows filled by provider cursors, and the rows put into them
+    private final AtomicLong mWindowFills = new AtomicLong();
+    private final AtomicLong mWindowRows = new AtomicLong();
+
+    // URIs marked changed by writes, and notifications actually sent after coalescing
+    private final AtomicLong mChangesMarked = new AtomicLong();
+    private final AtomicLong mNotificationsSent = new AtomicLong();
+
+    // counters of one operation on one kind of URI
+    private static final class Stats {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    }
+
+    // the prefix names the trace sections, the URI names are reported as given
+    public PetMetrics(String sectionPrefix, String[] uriNames) {
+
+        mUriNames = uriNames.clone();
+        mSectionNames = new String[OPERATION_NAMES.length][uriNames.length];
+        mStats = new Stats[OPERATION_NAMES.length][uriNames.length];
+
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int uri = 0; uri < uriNames.length; uri++) {
+
+                // systrace cuts section names at 127 characters
+                String name = sectionPrefix + "." + OPERATION_NAMES[operation] + " " + uriNames[uri];
+                mSectionNames[operation][uri] = name.length() > 127 ? name.substring(0, 127) : name;
+                mStats[operation][uri] = new Stats();
+            }
+        }
+    }
+
+    // start timing an operation and open its trace section, pass the result to end
+    public long begin(int operation, int uri) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(mSectionNames[operation][uri]);
+        }
+        return System.nanoTime();
+    }
+
+    // stop timing an operation started by begin, on the same thread, and close its trace section
+    // rows is the number of rows written or returned, 0 for a query whose rows are counted by queryRowsFilled
+    public void end(int operation, int uri, long beginNanos, int rows) {
+
+        long nanos = System.nanoTime() - beginNanos;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+
+        Stats stats = mStats[operation][uri];
+        stats.calls.incrementAndGet();
+        stats.totalNanos.addAndGet(nanos);
+        if (rows > 0) {
+            stats.rows.addAndGet(rows);
+        }
+
+        // a lost race only means another thread recorded a larger value
+        long max = stats.maxNanos.get();
+        while (nanos > max && !stats.maxNanos.compareAndSet(max, nanos)) {
+            max = stats.maxNanos.get();
+        }
+
+        stats.histogram.incrementAndGet(bucketOf(nanos / 1000));
+    }
+
+    // a cursor window was filled with the given number of rows
+    public void windowFilled(int rows) {
+        mWindowFills.incrementAndGet();
+        mWindowRows.addAndGet(rows);
+    }
+
+    // a query on the given kind of URI put rows into a cursor window after it returned,
+    // since a database cursor only runs its query once the caller reads it
+    public void queryRowsFilled(int uri, int rows) {
+        mStats[QUERY][uri].rows.addAndGet(rows);
+    }
+
+    // a write marked a URI as changed
+    public void changeMarked() {
+        mChangesMarked.incrementAndGet();
+    }
+
+    // a change notification was sent to the content resolver
+    public void notificationSent() {
+        mNotificationsSent.incrementAndGet();
+    }
+
+    // one row per operation and URI kind that has been called, followed by the window and notification totals
+    // which report their counts in the calls and rows columns
+    public MatrixCursor toCursor() {
+
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int uri = 0; uri < mUriNames.length; uri++) {
+
+                Stats stats = mStats[operation][uri];
+                long calls = stats.calls.get();
+                if (calls == 0) {
+                    continue;
+                }
+
+                cursor.addRow(new Object[] {OPERATION_NAMES[operation], mUriNames[uri], calls, stats.rows.get(),
+                        stats.totalNanos.get() / calls / 1000, percentile(stats, 0.50),
+                        percentile(stats, 0.90), percentile(stats, 0.99), stats.maxNanos.get() / 1000});
+            }
+        }
+
+        cursor.addRow(new Object[] {"windowFill", null, mWindowFills.get(), mWindowRows.get(),
+                null, null, null, null, null});
+        cursor.addRow(new Object[] {"notifyChange", null, mNotificationsSent.get(), mChangesMarked.get(),
+                null, null, null, null, null});
+        return cursor;
+    }
+
+    // write the same figures as toCursor as text, for dumpsys
+    public void dump(PrintWriter writer) {
+
+        writer.println("operation uri calls rows mean_us p50_us p90_us p99_us max_us");
+
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int uri = 0; uri < mUriNames.length; uri++) {
+
+                Stats stats = mStats[operation][uri];
+                long calls = stats.calls.get();
+                if (calls == 0) {
+                    continue;
+                }
+
+                writer.println(String.format(Locale.ROOT, "%s %s %d %d %d %d %d %d %d", OPERATION_NAMES[operation],
+                        mUriNames[uri], calls, stats.rows.get(), stats.totalNanos.get() / calls / 1000,
+                        percentile(stats, 0.50), percentile(stats, 0.90), percentile(stats, 0.99),
+                        stats.maxNanos.get() / 1000));
+            }
+        }
+
+        writer.println("window fills: " + mWindowFills.get() + ", rows: " + mWindowRows.get());
+        writer.println("changes marked: " + mChangesMarked.get() + ", notifications sent: " +
+                mNotificationsSent.get());
+    }
+
+    // histogram bucket for a latency, the number of bits needed to write it
+    private static int bucketOf(long micros) {
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return bucket < BUCKETS ? bucket : BUCKETS - 1;
+    }
+
+    // upper bound in microseconds of the bucket holding the given fraction of calls
+    // exact to within a factor of two, which is enough to spot a regression
+    private static long percentile(Stats stats, double fraction) {
+
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += stats.histogram.get(i);
+        }
+
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += stats.histogram.get(i);
+            if (seen >= rank && seen > 0) {
+                return (1L << i) - 1;
+            }
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+
+// cursor of the pets database that reports every cursor window fill to PetMetrics
+// SQLiteCursor fills its window on the first getCount and whenever a move leaves the rows in the window,
+// both cases are detected here without touching the fill itself
+// once the provider tells it the kind of URI it answers, the rows of each fill also count as rows of that query
+class PetMetricsCursor extends SQLiteCursor {
+
+    private final PetMetrics mMetrics;
+
+    // kind of URI whose query rows the fills count as, -1 until set by countRowsFor
+    // set on the binder thread that ran the query and read on whichever thread reads the cursor
+    private volatile int mQueryUri = -1;
+
+    PetMetricsCursor(SQLiteCursorDriver driver, String editTable, SQLiteQuery query, PetMetrics metrics) {
+        super(driver, editTable, query);
+        mMetrics = metrics;
+    }
+
+    // creates these cursors for every query on a database opened with it
+    static SQLiteDatabase.CursorFactory factory(final PetMetrics metrics) {
+        return new SQLiteDatabase.CursorFactory() {
+            @Override
+            public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable,
+                                    SQLiteQuery query) {
+                return new PetMetricsCursor(driver, editTable, query, metrics);
+            }
+        };
+    }
+
+    // count the rows of every later window fill as rows of a query on the given kind of URI
+    void countRowsFor(int uri) {
+        mQueryUri = uri;
+    }
+
+    @Override
+    public int getCount() {
+
+        // the first call runs the query and fills the first window
+        boolean fills = getWindow() == null;
+        int count = super.getCount();
+
+        if (fills && getWindow() != null) {
+            windowFilled(getWindow().getNumRows());
+        }
+        return count;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+
+        // same test SQLiteCursor uses to decide whether to refill the window
+        CursorWindow window = getWindow();
+        boolean fills = window == null || newPosition < window.getStartPosition() ||
+                newPosition >= window.getStartPosition() + window.getNumRows();
+
+        boolean moved = super.onMove(oldPosition, newPosition);
+
+        if (fills && getWindow() != null) {
+            windowFilled(getWindow().getNumRows());
+        }
+        return moved;
+    }
+
+    private void windowFilled(int rows) {
+        mMetrics.windowFilled(rows);
+        if (mQueryUri >= 0) {
+            mMetrics.queryRowsFilled(mQueryUri, rows);
+        }
+    }
+
+}
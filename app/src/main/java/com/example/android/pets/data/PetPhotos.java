@@ -0,0 +1,53 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+
+import java.io.File;
+
+// where pet photos live, one JPEG file per pet in the app's private storage
+// photos are kept out of the database so cursor windows only ever carry small rows
+// "final" modifier because class only contains static methods
+final class PetPhotos {
+
+    // empty constructor as no objects of this class will ever be created
+    private PetPhotos() {}
+
+    // directory of the photo files, below the files directory so they are backed up with the database
+    // the photos of any shelter but the default one are in a directory with the shelter id appended
+    private static final String DIRECTORY_NAME = "pet_photos";
+
+    // suffix of a photo file, whose name is the _ID of its pet
+    private static final String SUFFIX = ".jpg";
+
+    // directory holding every photo of the given shelter, which may not exist yet
+    static File directory(Context context, long shelterId) {
+        if (shelterId == PetContract.ShelterEntry.DEFAULT_SHELTER_ID) {
+            return new File(context.getFilesDir(), DIRECTORY_NAME);
+        }
+        return new File(context.getFilesDir(), DIRECTORY_NAME + "_" + shelterId);
+    }
+
+    // photo file of the given pet of the default shelter, which may not exist
+    static File file(Context context, long id) {
+        return file(context, PetContract.ShelterEntry.DEFAULT_SHELTER_ID, id);
+    }
+
+    // photo file of the given pet of the given shelter, which may not exist
+    static File file(Context context, long shelterId, long id) {
+        return new File(directory(context, shelterId), id + SUFFIX);
+    }
+
+    // _ID of the pet a photo file belongs to, or -1 if the file is not a photo
+    static long idOf(File file) {
+        String name = file.getName();
+        if (!name.endsWith(SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+}
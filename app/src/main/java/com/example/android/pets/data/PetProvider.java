@@ -1,15 +1,40 @@
 package com.example.android.pets.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import com.example.android.pets.data.PetContract.PetChangeEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
 
 // content provider
 public class PetProvider extends ContentProvider {
@@ -17,12 +42,78 @@ public class PetProvider extends ContentProvider {
     // tag for log messages
     public static final String LOG_TAG = PetProvider.class.getSimpleName();
 
-    // database helper object
-    private PetDbHelper mDbHelper;
+    // database helper, statements, caches and compactor of each shelter
+    private PetShardPool mShards;
+
+    // coalesces change notifications from bursts of writes
+    private PetChangeNotifier mChangeNotifier;
+
+    // runs pets queries filtered on several indexes as parallel sub-queries
+    private PetQueryPlanner mPlanner;
 
     // codes for URI matcher in the pets table
     private static final int PETS = 100;
     private static final int PET_ID = 101;
+    private static final int SEARCH = 102;
+    private static final int COUNT_BY_GENDER = 103;
+    private static final int COUNT_BY_BREED = 104;
+    private static final int AVERAGE_WEIGHT = 105;
+    private static final int DEBUG_METRICS = 106;
+    private static final int CHANGES = 107;
+    private static final int PHOTO = 108;
+    private static final int SHELTERS = 109;
+    private static final int SHELTER_ID = 110;
+    private static final int SUMMARY = 111;
+    private static final int WEIGHT_HISTOGRAM = 112;
+
+    // metrics names of the URI codes above, in code order, followed by the name for unknown URIs
+    // URIs of any shelter are counted under the URI of the default shelter
+    private static final String[] METRICS_URI_NAMES = {"pets", "pets/#", "pets/search",
+            "pets/stats/count_by_gender", "pets/stats/count_by_breed", "pets/stats/average_weight",
+            "debug/metrics", "pets/changes", "pets/#/photo", "shelters", "shelters/#", "pets/stats/summary",
+            "pets/stats/weight_histogram", "unknown"};
+
+    // shelter of a URI addressing every shelter, see ShelterEntry.scopeToAllShelters
+    private static final long ALL_SHELTERS = -1;
+
+    // columns of the shelter list
+    private static final String[] SHELTER_COLUMNS = {ShelterEntry._ID};
+
+    // columns of the insert statement shared by insert and bulkInsert, bound by bindNewPet
+    // PetMapper.WRITE_COLUMNS in the order PetMapper.bind binds them, followed by the uuid of the new pet
+    private static final String[] INSERT_COLUMNS = {PetEntry.COLUMN_PETS_NAME, PetEntry.COLUMN_PETS_BREED,
+            PetEntry.COLUMN_PETS_GENDER, PetEntry.COLUMN_PETS_WEIGHT, PetEntry.COLUMN_PETS_UUID};
+
+    // statements that only bind the _id of a single pet
+    private static final String[] NO_COLUMNS = {};
+
+    // selection for a single pet, shared instead of formatted on every query
+    // the ? and array pattern protects against SQL injection hacker attacks
+    private static final String SELECTION_ID = PetEntry._ID + "=?";
+
+    // selection for a single pet that has not been deleted
+    private static final String SELECTION_LIVE_ID = SELECTION_ID + " AND " + PetDbHelper.NOT_DELETED;
+
+    // a pet pulled by the sync engine, found by the identity it has on every device
+    private static final String SELECTION_UUID = PetEntry.COLUMN_PETS_UUID + "=?";
+
+    // purges a deleted pet right away, so a pet coming back from the sync engine can take its uuid
+    private static final String SELECTION_DELETED_UUID = SELECTION_UUID + " AND " + PetDbHelper.COLUMN_DELETED +
+            " = 1";
+
+    // last sequence number handed out by the change log, 0 while nothing has been logged
+    private static final String SQL_LAST_SEQUENCE = "SELECT IFNULL(MAX(" + PetChangeEntry.COLUMN_SEQUENCE + "), 0) FROM " +
+            PetChangeEntry.TABLE_NAME;
+
+    // selection of the changes logged after a sequence number
+    private static final String SELECTION_AFTER_SEQUENCE = PetChangeEntry.COLUMN_SEQUENCE + ">?";
+
+    // latency, row, window and notification counters of this provider
+    private PetMetrics mMetrics;
+
+    // true while applyBatch is running on the calling thread
+    // individual operations skip their notifications and a single one is sent when the batch ends
+    private final ThreadLocal<Boolean> mApplyingBatch = new ThreadLocal<Boolean>();
 
     // UriMatcher object matches a content URI to an integer code
     // the input passed to the constructor represents the code to return for the root URI
@@ -36,6 +127,26 @@ public class PetProvider extends ContentProvider {
         // first line assigns code 100 to "content://com.example.android.pets/pets"
         mUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS, PETS);
         mUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PET_ID);
+        mUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH, SEARCH);
+        mUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetEntry.COUNT_BY_GENDER_URI.getPath().substring(1), COUNT_BY_GENDER);
+        mUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetEntry.COUNT_BY_BREED_URI.getPath().substring(1), COUNT_BY_BREED);
+        mUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetEntry.AVERAGE_WEIGHT_URI.getPath().substring(1), AVERAGE_WEIGHT);
+        mUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.METRICS_URI.getPath().substring(1), DEBUG_METRICS);
+        mUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetChangeEntry.CONTENT_URI.getPath().substring(1), CHANGES);
+        mUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/#/" + PetContract.PATH_PHOTO, PHOTO);
+        mUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_SHELTERS, SHELTERS);
+        mUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_SHELTERS + "/#", SHELTER_ID);
+        mUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetEntry.SUMMARY_URI.getPath().substring(1), SUMMARY);
+        mUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetEntry.WEIGHT_HISTOGRAM_URI.getPath().substring(1), WEIGHT_HISTOGRAM);
 
     }
 
@@ -43,51 +154,321 @@ public class PetProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
 
-        // create and initialize a PetDbHelper object to gain access to the pets database
-        mDbHelper = new PetDbHelper(getContext());
+        mMetrics = new PetMetrics(PetProvider.class.getSimpleName(), METRICS_URI_NAMES);
+
+        // this runs on the main thread before any activity, so shelters are only set up on first use
+        // the cursors of every shelter report their window fills to the metrics
+        mShards = new PetShardPool(getContext(), PetMetricsCursor.factory(mMetrics),
+                PetShardPool.DEFAULT_MAX_OPEN_SHARDS);
+        PetStartupMetrics.getInstance().phaseEnded(PetStartupMetrics.PROVIDER_CREATED);
+
+        // the default shelter is set up and its database opened in the background right away,
+        // ahead of the catalog's first query
+        PetWarmUp.start(mShards);
+
+        // writes report their URIs here rather than notifying the content resolver directly
+        mChangeNotifier = new PetChangeNotifier(getContext().getContentResolver(),
+                PetChangeNotifier.DEFAULT_WINDOW_MILLIS, mMetrics);
+
+        // its threads are only started by the first planned query
+        mPlanner = new PetQueryPlanner(PetQueryPlanner.DEFAULT_THREADS);
 
         return true;
     }
 
-    // perform a query on the given URI
+    // called only in unit tests, the system never shuts a provider down
+    @Override
+    public void shutdown() {
+        mChangeNotifier.quit();
+        mPlanner.quit();
+        mShards.closeAll();
+        super.shutdown();
+    }
+
+    // write the provider metrics and cache counters, shown by
+    // adb shell dumpsys activity provider com.example.android.pets/.data.PetProvider
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+        writer.println(PetStartupMetrics.getInstance());
+        writer.println(PetCache.getInstance());
+        writer.println(mShards.getDefault().thumbnails);
+    }
+
+    // index of a URI code in METRICS_URI_NAMES
+    private static int metricsUri(int match) {
+        return match >= PETS && match <= WEIGHT_HISTOGRAM ? match - PETS : METRICS_URI_NAMES.length - 1;
+    }
+
+    // pattern match code of a URI of any shelter
+    private static int match(Uri uri) {
+        return mUriMatcher.match(withoutShelter(uri));
+    }
+
+    // true if the URI is a pets URI prefixed with shelters/<shelter>
+    private static boolean hasShelter(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return segments.size() > 2 && PetContract.PATH_SHELTERS.equals(segments.get(0));
+    }
+
+    // the shelter a URI addresses, the default shelter for URIs without a shelter prefix
+    // or ALL_SHELTERS for URIs addressing every shelter
+    private static long shelterOf(Uri uri) {
+
+        if (!hasShelter(uri)) {
+            return ShelterEntry.DEFAULT_SHELTER_ID;
+        }
+
+        String shelter = uri.getPathSegments().get(1);
+        if (ShelterEntry.PATH_ALL.equals(shelter)) {
+            return ALL_SHELTERS;
+        }
+        return parseQueryNumber(uri, shelter);
+    }
+
+    // the URI without its shelter prefix, the same pets URI of the default shelter
+    private static Uri withoutShelter(Uri uri) {
+
+        if (!hasShelter(uri)) {
+            return uri;
+        }
+
+        List<String> segments = uri.getPathSegments();
+        Uri.Builder builder = uri.buildUpon().path(null);
+        for (String segment : segments.subList(2, segments.size())) {
+            builder.appendPath(segment);
+        }
+        return builder.build();
+    }
+
+    // the shard of the single shelter the URI addresses, to be released after the call
+    private PetShard acquireShard(Uri uri) {
+
+        long shelterId = shelterOf(uri);
+        if (shelterId == ALL_SHELTERS) {
+            throw new IllegalArgumentException("Only queries can address every shelter: " + uri);
+        }
+        return mShards.acquire(shelterId);
+    }
+
+    // perform a query on the given URI, timed and traced
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
 
+        // get pattern match code for URI
+        final int match = match(uri);
+        long shelterId = shelterOf(uri);
+
+        // rows already in memory are counted now, those of a database cursor as its windows are filled
+        long begin = mMetrics.begin(PetMetrics.QUERY, metricsUri(match));
+        int rows = 0;
+        try {
+
+            if (shelterId == ALL_SHELTERS) {
+                Cursor merged = queryAllShelters(uri, match, projection, selection, selectionArgs, sortOrder);
+                rows = countQueryRows(merged, match);
+                return merged;
+            }
+
+            PetShard shard = mShards.acquire(shelterId);
+            Cursor cursor = null;
+            try {
+                cursor = query(shard, uri, match, projection, selection, selectionArgs, sortOrder);
+                rows = countQueryRows(cursor, match);
+
+                // the pool may close this shard once it is released, and a closed database cannot fill
+                // a cursor window, so the cursor holds on to the shard and releases it when it is closed
+                // the default shard is never closed and needs no release
+                if (shard.shelterId != ShelterEntry.DEFAULT_SHELTER_ID) {
+                    cursor = new PetShardCursor(cursor, mShards, shard);
+                }
+                return cursor;
+            } finally {
+                if (!(cursor instanceof PetShardCursor)) {
+                    mShards.release(shard);
+                }
+            }
+
+        } finally {
+            mMetrics.end(PetMetrics.QUERY, metricsUri(match), begin, rows);
+        }
+    }
+
+    // rows of a query result to record when the query ends
+    // a database cursor runs its query as the caller reads it, so it reports its rows with each window fill
+    // instead, and must be told before its first fill, any other result is in memory and counted now
+    private int countQueryRows(Cursor cursor, int match) {
+        if (cursor instanceof PetMetricsCursor) {
+            ((PetMetricsCursor) cursor).countRowsFor(metricsUri(match));
+            return 0;
+        }
+        return cursor.getCount();
+    }
+
+    // perform a query on the given URI of the shard's shelter with its pattern match code
+    private Cursor query(PetShard shard, Uri uri, int match, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder) {
+
         // get reference to readable database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        SQLiteDatabase database = shard.dbHelper.getReadableDatabase();
+
+        // a change to any pet of this shelter notifies this URI, single pet URIs sit below it
+        Uri petsUri = ShelterEntry.scope(shard.shelterId, PetEntry.CONTENT_URI);
 
         // cursor holds the result of the query
         Cursor cursor;
 
-        // get pattern match code for URI
-        final int match = mUriMatcher.match(uri);
+        // listeners to this URI are told when the result may have changed
+        Uri notificationUri = uri;
 
         switch (match) {
 
             // full pets table
             case PETS:
 
-                // perform a query on the entire pets table
+                // only the filter parameters can be split into sub-queries, not a caller selection or order
+                boolean callerFiltered = selection != null || sortOrder != null;
+
+                // optional keyset paging parameters, see PetEntry.buildPageUri
+                String afterId = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID);
+                String limit = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT);
+
+                // optional sort parameter, see PetEntry.QueryBuilder
+                String sort = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT);
+
+                if (sort != null) {
+
+                    // a page only continues where the previous one stopped if rows come in key order
+                    if (sortOrder != null || afterId != null) {
+                        throw new IllegalArgumentException("Sorted query cannot have a sort order or after_id: " + uri);
+                    }
+                    sortOrder = buildSortOrder(uri, sort);
+
+                } else if (afterId != null || limit != null) {
+
+                    // a page only continues where the previous one stopped if rows come in key order
+                    if (sortOrder != null) {
+                        throw new IllegalArgumentException("Paged query cannot have a sort order: " + uri);
+                    }
+                    sortOrder = PetEntry._ID + " ASC";
+                }
+
+                // a filter spanning several indexes is answered by one parallel sub-query per index
+                // a sorted page stays one indexed ORDER BY ... LIMIT, which reads no more rows than it returns
+                List<String[]> conditions = buildFilterConditions(uri);
+                if (!callerFiltered && sort == null && conditions.size() > 1 && canPlan(shard, database)) {
+                    cursor = mPlanner.query(database, conditions, projection,
+                            afterId == null ? -1 : parseQueryNumber(uri, afterId),
+                            limit == null ? -1 : parseQueryNumber(uri, limit));
+                    break;
+                }
+
+                // optional filter parameters, each one can be answered from an index, and deleted pets are hidden
+                String[] filter = buildFilter(uri);
+                selection = appendSelection(selection, filter[0]);
+                for (int i = 1; i < filter.length; i++) {
+                    selectionArgs = appendSelectionArgs(selectionArgs, filter[i]);
+                }
+
+                // only rows after the last key of the previous page, found through the primary key
+                if (afterId != null) {
+                    selection = appendSelection(selection, PetEntry._ID + ">?");
+                    selectionArgs = appendSelectionArgs(selectionArgs,
+                            String.valueOf(parseQueryNumber(uri, afterId)));
+                }
+
+                // at most limit rows are put into the cursor window
+                if (limit != null) {
+                    limit = String.valueOf(parseQueryNumber(uri, limit));
+                }
+
+                // perform a query on the pets table, or on one page of it
                 cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                        null, null, sortOrder, limit);
                 break;
 
             // specific row in pets table
             case PET_ID:
 
-                // the ? and array pattern protects against SQL injection hacker attacks
-                // number of ? in selection must match number of elements in selectionArgs[]
-                // equivalent to string "_id=?"
-                selection = PetEntry._ID + "=?";
+                // read through the cache, a single row needs no selection or sort order
+                cursor = queryPetById(shard, database, ContentUris.parseId(uri), projection);
+                break;
 
-                // parseId extracts only the integer id from the content URI
-                // equivalent to string "_id=#" where # is any integer
-                selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
+            // full-text search over names and breeds
+            case SEARCH:
 
-                // perform a query on the pets table where _id equals #, returning a single row Cursor
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                // search results come in order of relevance, callers cannot add their own filter or order
+                if (selection != null || sortOrder != null) {
+                    throw new IllegalArgumentException("Search cannot have a selection or sort order: " + uri);
+                }
+
+                cursor = searchPets(database, uri, projection);
+
+                // a change to any single pet can change the results
+                notificationUri = petsUri;
+                break;
+
+            // aggregates computed by the database over the filtered pets
+            case COUNT_BY_GENDER:
+            case COUNT_BY_BREED:
+            case AVERAGE_WEIGHT:
+
+                // the columns and order of an aggregate are fixed, its filter comes from the URI
+                if (projection != null || selection != null || sortOrder != null) {
+                    throw new IllegalArgumentException("Aggregate cannot have a projection, selection or sort order: " +
+                            uri);
+                }
+
+                cursor = queryAggregate(database, uri, match);
+
+                // a change to any single pet can change the aggregate
+                notificationUri = petsUri;
+                break;
+
+            // reports computed from the shelter's in-memory columns
+            case SUMMARY:
+            case WEIGHT_HISTOGRAM:
 
+                // the columns and order of a report are fixed, and it covers every pet
+                if (projection != null || selection != null || sortOrder != null ||
+                        !buildFilterConditions(uri).isEmpty()) {
+                    throw new IllegalArgumentException("Report cannot have a projection, selection, sort order or " +
+                            "filter: " + uri);
+                }
+
+                cursor = queryReport(shard, uri, match);
+
+                // a change to any single pet can change the report
+                notificationUri = petsUri;
+                break;
+
+            // counters of this provider, a snapshot that is not updated
+            case DEBUG_METRICS:
+                MatrixCursor metrics = mMetrics.toCursor();
+                PetStartupMetrics.getInstance().addTo(metrics);
+                return metrics;
+
+            // shelters that have a database, a snapshot that is not updated
+            case SHELTERS:
+                MatrixCursor shelters = new MatrixCursor(SHELTER_COLUMNS);
+                for (long id : mShards.shelterIds()) {
+                    shelters.addRow(new Object[] {id});
+                }
+                return shelters;
+
+            // pets changed since the last push, with their current state
+            case CHANGES:
+
+                // the columns and order of the log are fixed, which changes it returns comes from the URI
+                if (projection != null || selection != null || sortOrder != null) {
+                    throw new IllegalArgumentException("Change log cannot have a projection, selection or sort order: " +
+                            uri);
+                }
+
+                cursor = queryChanges(database, uri);
+
+                // every write to a pet logs a change
+                notificationUri = petsUri;
                 break;
 
             default:
@@ -95,25 +476,484 @@ public class PetProvider extends ContentProvider {
         }
 
         // set a notification for this content URI
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+        return cursor;
+
+    }
+
+    // run a pets or aggregate query on every shelter and merge the results
+    // each shelter applies the filter, sort and limit itself, so no shelter returns more rows than the merge keeps
+    private Cursor queryAllShelters(Uri uri, int match, String[] projection, String selection,
+                                    String[] selectionArgs, String sortOrder) {
+
+        Uri shelterUri = withoutShelter(uri);
+
+        if (match == PETS) {
+
+            // _ids repeat across shelters, so there is no key to continue a page from,
+            // and only the sort parameter names an order the merge knows
+            if (shelterUri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID) != null || sortOrder != null) {
+                throw new IllegalArgumentException("Query over every shelter cannot have after_id or a sort order: " +
+                        uri);
+            }
+        } else if (match != COUNT_BY_GENDER && match != COUNT_BY_BREED && match != AVERAGE_WEIGHT) {
+            throw new IllegalArgumentException("Cannot query every shelter at: " + uri);
+        }
+
+        String sort = shelterUri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT);
+        String[] columns = projection == null ? PetMapper.COLUMNS : projection;
+
+        long[] shelterIds = mShards.shelterIds();
+        List<Cursor> cursors = new ArrayList<Cursor>(shelterIds.length);
+        try {
+
+            // one shelter at a time, its rows are copied and its shard released before the next one is acquired,
+            // so the fan-out holds one shard at a time and the pool stays within its limit
+            for (long shelterId : shelterIds) {
+                PetShard shard = mShards.acquire(shelterId);
+                try {
+                    Cursor cursor = query(shard, shelterUri, match,
+                            match == PETS ? PetShelterMerger.withSortColumns(columns, sort) : projection,
+                            selection, selectionArgs, null);
+                    try {
+                        cursors.add(PetShelterMerger.copyOf(cursor));
+                    } finally {
+                        cursor.close();
+                    }
+                } finally {
+                    mShards.release(shard);
+                }
+            }
+
+            MatrixCursor merged;
+            switch (match) {
+                case PETS:
+                    String limit = shelterUri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT);
+                    merged = PetShelterMerger.mergePets(cursors, shelterIds, columns, sort,
+                            limit == null ? -1 : parseQueryNumber(uri, limit));
+                    break;
+                case COUNT_BY_GENDER:
+                    merged = PetShelterMerger.mergeCounts(cursors, PetEntry.COLUMN_PETS_GENDER);
+                    break;
+                case COUNT_BY_BREED:
+                    merged = PetShelterMerger.mergeCounts(cursors, PetEntry.COLUMN_PETS_BREED);
+                    break;
+                default:
+                    merged = PetShelterMerger.mergeAverages(cursors);
+                    break;
+            }
+
+            // a change to any pet of any shelter can change the result, and every URI sits below the root
+            merged.setNotificationUri(getContext().getContentResolver(), PetContract.BASE_CONTENT_URI);
+            return merged;
+
+        } finally {
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+
+    // query a single pet through the cache of its shelter, returning a cursor of zero or one row
+    private static Cursor queryPetById(PetShard shard, SQLiteDatabase database, long id, String[] projection) {
+
+        Pet pet = shard.petCache.get(id);
+
+        if (pet == null) {
+
+            // taken before the query, so a write that lands while the row is read keeps it out of the cache
+            long generation = shard.petCache.generation();
+
+            // number of ? in selection must match number of elements in selectionArgs[]
+            // equivalent to string "_id=?"
+            // every column is read so the row can serve any later projection
+            Cursor row = database.query(PetEntry.TABLE_NAME, PetMapper.COLUMNS, SELECTION_LIVE_ID,
+                    new String[] {String.valueOf(id)}, null, null, null);
+            try {
+                if (row.moveToFirst()) {
+                    pet = new PetMapper(row).read(row);
+                    shard.petCache.put(pet, generation);
+                }
+            } finally {
+                row.close();
+            }
+        }
+
+        // the requested columns of the pet, in the requested order
+        String[] columns = projection == null ? PetMapper.COLUMNS : projection;
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        if (pet != null) {
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = pet.get(columns[i]);
+            }
+            cursor.addRow(values);
+        }
         return cursor;
+    }
+
+    // compute one of the aggregates over the pets matching the filter parameters of the URI
+    private Cursor queryAggregate(SQLiteDatabase database, Uri uri, int match) {
 
+        String[] filter = buildFilter(uri);
+        String selection = filter[0];
+        String[] selectionArgs = null;
+        if (filter.length > 1) {
+            selectionArgs = new String[filter.length - 1];
+            System.arraycopy(filter, 1, selectionArgs, 0, selectionArgs.length);
+        }
+
+        String count = "COUNT(*) AS " + PetEntry.COLUMN_COUNT;
+
+        switch (match) {
+
+            // grouped on index_pets_gender_weight, which holds every column the query reads
+            case COUNT_BY_GENDER:
+                return database.query(PetEntry.TABLE_NAME, new String[] {PetEntry.COLUMN_PETS_GENDER, count},
+                        selection, selectionArgs, PetEntry.COLUMN_PETS_GENDER, null, PetEntry.COLUMN_PETS_GENDER);
+
+            // grouped on index_pets_breed
+            case COUNT_BY_BREED:
+                return database.query(PetEntry.TABLE_NAME, new String[] {PetEntry.COLUMN_PETS_BREED, count},
+                        selection, selectionArgs, PetEntry.COLUMN_PETS_BREED, null, PetEntry.COLUMN_PETS_BREED);
+
+            // without a filter this only reads index_pets_weight
+            case AVERAGE_WEIGHT:
+                return database.query(PetEntry.TABLE_NAME, new String[] {"AVG(" + PetEntry.COLUMN_PETS_WEIGHT +
+                        ") AS " + PetEntry.COLUMN_AVERAGE_WEIGHT, count}, selection, selectionArgs, null, null, null);
+
+            default:
+                throw new IllegalArgumentException("Unknown aggregate: " + uri);
+        }
     }
 
-    // insert new data into provider
+    // compute one of the reports over the pets of the shard from its snapshot
+    private static Cursor queryReport(PetShard shard, Uri uri, int match) {
+
+        String groupBy = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_GROUP_BY);
+        if (!PetSnapshot.isValidGroup(groupBy)) {
+            throw new IllegalArgumentException("Invalid group_by " + groupBy + " in: " + uri);
+        }
+
+        if (match == SUMMARY) {
+            return shard.snapshot.summary(groupBy);
+        }
+
+        String bucketWidth = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_BUCKET_WIDTH);
+        long width = bucketWidth == null ? 1 : parseQueryNumber(uri, bucketWidth);
+        if (width == 0 || width > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid bucket_width " + bucketWidth + " in: " + uri);
+        }
+        return shard.snapshot.weightHistogram((int) width, groupBy);
+    }
+
+    // one row per pet changed after the after_seq parameter, optionally only the pet of the pet_id or
+    // pet_uuid parameter, in order of their latest change and at most limit of them
+    // repeated changes to a pet collapse into its latest one, and its current state is read from the pets table,
+    // so a pet edited many times is pushed once and a pet that is gone is pushed as a delete
+    private Cursor queryChanges(SQLiteDatabase database, Uri uri) {
+
+        String afterSequence = uri.getQueryParameter(PetChangeEntry.QUERY_PARAMETER_AFTER_SEQUENCE);
+        String petId = uri.getQueryParameter(PetChangeEntry.QUERY_PARAMETER_PET_ID);
+        String petUuid = uri.getQueryParameter(PetChangeEntry.QUERY_PARAMETER_PET_UUID);
+        String limit = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT);
+
+        List<String> args = new ArrayList<String>();
+        args.add(afterSequence == null ? "0" : String.valueOf(parseQueryNumber(uri, afterSequence)));
+
+        String petSelection = "";
+        if (petId != null) {
+            petSelection += " AND " + PetChangeEntry.COLUMN_PET_ID + "=?";
+            args.add(String.valueOf(parseQueryNumber(uri, petId)));
+        }
+        if (petUuid != null) {
+            petSelection += " AND " + PetChangeEntry.COLUMN_PET_UUID + "=?";
+            args.add(petUuid);
+        }
+
+        // the grouping reads the log in pet_id order through index_pets_changes_pet_id,
+        // and each pet is then found by primary key, the log only holds changes not pushed yet so it stays short
+        String sql = "SELECT changes." + PetChangeEntry.COLUMN_SEQUENCE + " AS " + PetChangeEntry.COLUMN_SEQUENCE +
+                ", changes." + PetChangeEntry.COLUMN_PET_ID + " AS " + PetChangeEntry.COLUMN_PET_ID +
+                ", changes." + PetChangeEntry.COLUMN_PET_UUID + " AS " + PetChangeEntry.COLUMN_PET_UUID +
+                ", (" + PetEntry.TABLE_NAME + "." + PetEntry._ID + " IS NULL OR " + PetEntry.TABLE_NAME + "." +
+                PetDbHelper.COLUMN_DELETED + " = 1) AS " + PetChangeEntry.COLUMN_DELETED +
+                ", changes." + PetChangeEntry.COLUMN_PET_ID + " AS " + PetEntry._ID +
+                ", " + qualifyProjection(PetMapper.WRITE_COLUMNS) +
+                ", " + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PETS_VERSION + " AS " + PetEntry.COLUMN_PETS_VERSION +
+                " FROM (SELECT MAX(" + PetChangeEntry.COLUMN_SEQUENCE + ") AS " + PetChangeEntry.COLUMN_SEQUENCE +
+                ", " + PetChangeEntry.COLUMN_PET_ID + ", " + PetChangeEntry.COLUMN_PET_UUID +
+                " FROM " + PetChangeEntry.TABLE_NAME +
+                " WHERE " + SELECTION_AFTER_SEQUENCE + petSelection +
+                " GROUP BY " + PetChangeEntry.COLUMN_PET_ID + ") AS changes" +
+                " LEFT JOIN " + PetEntry.TABLE_NAME + " ON " + PetEntry.TABLE_NAME + "." + PetEntry._ID +
+                " = changes." + PetChangeEntry.COLUMN_PET_ID +
+                " ORDER BY changes." + PetChangeEntry.COLUMN_SEQUENCE;
+
+        // at most limit rows are put into the cursor window
+        if (limit != null) {
+            sql += " LIMIT " + parseQueryNumber(uri, limit);
+        }
+
+        return database.rawQuery(sql, args.toArray(new String[args.size()]));
+    }
+
+    // selection and arguments for the filter parameters of the URI, deleted pets never match
+    // the first element is the selection and the rest are its arguments, in order
+    private static String[] buildFilter(Uri uri) {
+
+        List<String> clauses = new ArrayList<String>();
+        List<String> args = new ArrayList<String>();
+
+        clauses.add(PetDbHelper.NOT_DELETED);
+        for (String[] condition : buildFilterConditions(uri)) {
+            clauses.add(condition[0]);
+            args.addAll(Arrays.asList(condition).subList(1, condition.length));
+        }
+
+        // numbers are bound as text, which sqlite compares as numbers against the integer columns
+        args.add(0, TextUtils.join(" AND ", clauses));
+        return args.toArray(new String[args.size()]);
+    }
+
+    // the filter parameters of the URI as conditions that are each answered by one index,
+    // gender and weight by index_pets_gender_weight or index_pets_weight, breed by index_pets_breed
+    // and text by the fts table, each element is a clause followed by its arguments
+    private static List<String[]> buildFilterConditions(Uri uri) {
+
+        List<String[]> conditions = new ArrayList<String[]>();
+        List<String> clauses = new ArrayList<String>();
+        List<String> args = new ArrayList<String>();
+
+        String gender = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_GENDER);
+        if (gender != null) {
+            long value = parseQueryNumber(uri, gender);
+            if (value > Integer.MAX_VALUE || !PetEntry.isValidGender((int) value)) {
+                throw new IllegalArgumentException("Invalid gender " + gender + " in: " + uri);
+            }
+            clauses.add(PetEntry.COLUMN_PETS_GENDER + "=?");
+            args.add(String.valueOf(value));
+        }
+
+        String minWeight = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_MIN_WEIGHT);
+        if (minWeight != null) {
+            clauses.add(PetEntry.COLUMN_PETS_WEIGHT + ">=?");
+            args.add(String.valueOf(parseQueryNumber(uri, minWeight)));
+        }
+
+        String maxWeight = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_MAX_WEIGHT);
+        if (maxWeight != null) {
+            clauses.add(PetEntry.COLUMN_PETS_WEIGHT + "<=?");
+            args.add(String.valueOf(parseQueryNumber(uri, maxWeight)));
+        }
+
+        if (!clauses.isEmpty()) {
+            args.add(0, TextUtils.join(" AND ", clauses));
+            conditions.add(args.toArray(new String[args.size()]));
+        }
+
+        String breed = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_BREED);
+        if (breed != null) {
+            conditions.add(new String[] {PetEntry.COLUMN_PETS_BREED + "=?", breed});
+        }
+
+        // the same prefix terms as a search, text without any word in it matches no pet
+        String text = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SEARCH);
+        if (text != null) {
+            String match = buildMatchExpression(text, null);
+            if (match == null) {
+                conditions.add(new String[] {"0"});
+            } else {
+                conditions.add(new String[] {PetEntry._ID + " IN (SELECT docid FROM " + PetDbHelper.FTS_TABLE_NAME +
+                        " WHERE " + PetDbHelper.FTS_TABLE_NAME + " MATCH ?)", match});
+            }
+        }
+
+        return conditions;
+    }
+
+    // true if a query on the database of the shard can run as parallel sub-queries
+    // readers only get connections of their own in WAL mode, and a query inside a transaction of the
+    // calling thread must see its uncommitted writes, which other connections cannot
+    private static boolean canPlan(PetShard shard, SQLiteDatabase database) {
+        return shard.dbHelper.getSettings().writeAheadLogging && !database.isReadOnly() &&
+                !database.inTransaction();
+    }
+
+    // ORDER BY clause for the sort parameter of the URI, ties are broken by _ID so the order is stable
+    private static String buildSortOrder(Uri uri, String sort) {
+        if (PetEntry.SORT_NAME.equals(sort)) {
+            return PetEntry.COLUMN_PETS_NAME + " COLLATE NOCASE ASC, " + PetEntry._ID + " ASC";
+        } else if (PetEntry.SORT_NAME_DESC.equals(sort)) {
+            return PetEntry.COLUMN_PETS_NAME + " COLLATE NOCASE DESC, " + PetEntry._ID + " DESC";
+        } else if (PetEntry.SORT_WEIGHT.equals(sort)) {
+            return PetEntry.COLUMN_PETS_WEIGHT + " ASC, " + PetEntry._ID + " ASC";
+        } else if (PetEntry.SORT_WEIGHT_DESC.equals(sort)) {
+            return PetEntry.COLUMN_PETS_WEIGHT + " DESC, " + PetEntry._ID + " DESC";
+        }
+        throw new IllegalArgumentException("Invalid sort " + sort + " in: " + uri);
+    }
+
+    // run a full-text search for the text in the given search URI, most relevant pets first
+    private Cursor searchPets(SQLiteDatabase database, Uri uri, String[] projection) {
+
+        String text = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SEARCH);
+        String limit = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT);
+
+        // every word has to match the start of a word in the name or the breed
+        String match = buildMatchExpression(text, null);
+
+        // the same words restricted to the name, pets matching this one rank first
+        String nameMatch = buildMatchExpression(text, PetEntry.COLUMN_PETS_NAME);
+
+        // text without any word in it, such as blank text, matches no pet
+        if (match == null) {
+            return database.query(PetEntry.TABLE_NAME, projection, "0", null, null, null, null);
+        }
+
+        // the fts table finds the matching docids, which are the _id of the matching pets
+        // the IN subquery runs once and is kept as a temporary index for the ordering
+        String sql = "SELECT " + qualifyProjection(projection) +
+                " FROM " + PetDbHelper.FTS_TABLE_NAME + " JOIN " + PetEntry.TABLE_NAME +
+                " ON " + PetEntry.TABLE_NAME + "." + PetEntry._ID + " = " + PetDbHelper.FTS_TABLE_NAME + ".docid" +
+                " WHERE " + PetDbHelper.FTS_TABLE_NAME + " MATCH ?" +
+                " AND " + PetEntry.TABLE_NAME + "." + PetDbHelper.NOT_DELETED +
+                " ORDER BY " + PetEntry.TABLE_NAME + "." + PetEntry._ID + " IN (SELECT docid FROM " +
+                PetDbHelper.FTS_TABLE_NAME + " WHERE " + PetDbHelper.FTS_TABLE_NAME + " MATCH ?) DESC, " +
+                PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PETS_NAME + " COLLATE NOCASE";
+
+        // at most limit rows are put into the cursor window
+        if (limit != null) {
+            sql += " LIMIT " + parseQueryNumber(uri, limit);
+        }
+
+        return database.rawQuery(sql, new String[] {match, nameMatch});
+    }
+
+    // turn user text into an fts MATCH expression of prefix terms, optionally limited to one column
+    // each run of letters and digits becomes a term and everything else is dropped,
+    // so user text can never form fts operators, returns null if there is no term
+    private static String buildMatchExpression(String text, String column) {
+
+        if (text == null) {
+            return null;
+        }
+
+        StringBuilder expression = new StringBuilder();
+
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+
+            if (word.isEmpty()) {
+                continue;
+            }
+
+            // terms separated by spaces must all match
+            if (expression.length() > 0) {
+                expression.append(' ');
+            }
+
+            if (column != null) {
+                expression.append(column).append(':');
+            }
+
+            // lower case so words like OR and NOT stay terms, the fts tokenizer lower cases anyway
+            expression.append(word.toLowerCase(Locale.ROOT)).append('*');
+        }
+
+        return expression.length() == 0 ? null : expression.toString();
+    }
+
+    // qualify projection columns with the pets table, since the fts table has columns of the same name
+    private static String qualifyProjection(String[] projection) {
+
+        if (projection == null) {
+            return PetEntry.TABLE_NAME + ".*";
+        }
+
+        StringBuilder columns = new StringBuilder();
+        for (String column : projection) {
+            if (columns.length() > 0) {
+                columns.append(", ");
+            }
+            columns.append(PetEntry.TABLE_NAME).append('.').append(column).append(" AS ").append(column);
+        }
+        return columns.toString();
+    }
+
+    // combine a caller selection with an additional clause, both must hold
+    private static String appendSelection(String selection, String clause) {
+        if (selection == null || selection.isEmpty()) {
+            return clause;
+        }
+        return "(" + selection + ") AND (" + clause + ")";
+    }
+
+    // add an argument for the clause appended by appendSelection
+    private static String[] appendSelectionArgs(String[] selectionArgs, String arg) {
+        if (selectionArgs == null) {
+            return new String[] {arg};
+        }
+        String[] combined = new String[selectionArgs.length + 1];
+        System.arraycopy(selectionArgs, 0, combined, 0, selectionArgs.length);
+        combined[selectionArgs.length] = arg;
+        return combined;
+    }
+
+    // parse a non-negative number from a query parameter of the given URI
+    private static long parseQueryNumber(Uri uri, String value) {
+        try {
+            long number = Long.parseLong(value);
+            if (number >= 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the exception below
+        }
+        throw new IllegalArgumentException("Invalid query parameter " + value + " in: " + uri);
+    }
+
+    // insert new data into provider, timed and traced
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
 
         // get pattern match code for URI
-        final int match = mUriMatcher.match(uri);
+        final int match = match(uri);
+
+        PetShard shard = acquireShard(uri);
+        long begin = mMetrics.begin(PetMetrics.INSERT, metricsUri(match));
+        long logMark = -1;
+        boolean written = false;
+        Uri newUri = null;
+        try {
+
+            // a write of the sync engine is kept out of the change log
+            logMark = beginSyncWrite(shard, uri);
+
+            newUri = insert(shard, uri, match, contentValues);
+            written = true;
+            return newUri;
+        } finally {
+            endSyncWrite(shard, logMark, written);
+            mShards.release(shard);
+            mMetrics.end(PetMetrics.INSERT, metricsUri(match), begin, newUri == null ? 0 : 1);
+        }
+    }
+
+    // insert new data at the given URI of the shard's shelter with its pattern match code
+    private Uri insert(PetShard shard, Uri uri, int match, ContentValues contentValues) {
 
         switch (match) {
 
             // full pets table
             case PETS:
 
+                // a pet pulled by the sync engine keeps the uuid it has everywhere else
+                if (isSyncAdapter(uri) && contentValues.containsKey(PetEntry.COLUMN_PETS_UUID)) {
+                    return insertSyncedPet(shard, uri, contentValues);
+                }
+
                 // helper method returns content URI for this new row
-                return insertPet(uri, contentValues);
+                return insertPet(shard, uri, contentValues);
 
             // specific row in pets table
             // case PET_ID: this case will never happen as insert is always at the end of the table
@@ -125,7 +965,77 @@ public class PetProvider extends ContentProvider {
     }
 
     // insert pet into database with given content values, return content URI for this new row
-    private Uri insertPet(Uri uri, ContentValues values) {
+    private Uri insertPet(PetShard shard, Uri uri, ContentValues values) {
+
+        // throws if any value is missing or out of range
+        Pet pet = toPet(values);
+
+        // every insert binds all of INSERT_COLUMNS, so a single statement is compiled and reused
+        SQLiteStatement statement = shard.statementCache.get(PetStatementCache.INSERT, INSERT_COLUMNS);
+        bindNewPet(statement, pet);
+
+        // insert new row into the pets table and get the new row id
+        long newRowId;
+        try {
+            newRowId = statement.executeInsert();
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Insertion failed for: " + uri, e);
+            newRowId = -1;
+        }
+
+        // if the insertion failed then newRowId = -1 and return null
+        if (newRowId == -1) {
+            Log.e(LOG_TAG, "Insertion failed for: " + uri);
+            return null;
+        }
+
+        // if 1 or more rows of were inserted then notify all listeners to this URI
+        // AUTOINCREMENT never reuses an _id, so no single pet is cached for it, but the snapshot has to pick it up
+        if (newRowId > 0) {
+            shard.snapshot.invalidate(newRowId);
+            notifyChange(uri);
+        }
+
+        // return the new URI with the new ID appended to it
+        return ContentUris.withAppendedId(uri, newRowId);
+    }
+
+    // insert or replace the pet with the uuid given in the content values, for the sync engine
+    // a pet this device knows is updated in place, one it deleted but has not purged yet is purged first,
+    // a pet it does not know is inserted under a new _id of this device
+    private Uri insertSyncedPet(PetShard shard, Uri uri, ContentValues contentValues) {
+
+        ContentValues values = new ContentValues(contentValues);
+        String uuid = values.getAsString(PetEntry.COLUMN_PETS_UUID);
+        values.remove(PetEntry.COLUMN_PETS_UUID);
+
+        // throws if any value is missing or out of range
+        validatePet(values);
+
+        SQLiteDatabase database = shard.dbHelper.getWritableDatabase();
+        String[] uuidArgs = {uuid};
+
+        // the purge fires the fts delete trigger and frees the uuid for the insert below
+        database.delete(PetEntry.TABLE_NAME, SELECTION_DELETED_UUID, uuidArgs);
+
+        long id;
+        if (database.update(PetEntry.TABLE_NAME, values, SELECTION_UUID, uuidArgs) != 0) {
+            id = DatabaseUtils.longForQuery(database, "SELECT " + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME +
+                    " WHERE " + SELECTION_UUID, uuidArgs);
+        } else {
+            values.put(PetEntry.COLUMN_PETS_UUID, uuid);
+            id = database.insertOrThrow(PetEntry.TABLE_NAME, null, values);
+        }
+
+        // caches are dropped once the sync write commits, see endSyncWrite
+        notifyChange(uri);
+
+        return ShelterEntry.scope(shard.shelterId, ContentUris.withAppendedId(PetEntry.CONTENT_URI, id));
+    }
+
+    // check the content values of a new pet, throwing if any value is missing or invalid
+    // shared with the importer so a file is rejected by the same rules before anything is written
+    static void validatePet(ContentValues values) {
 
         // check validity of name value
         // extract the value from the key : value pair
@@ -149,37 +1059,233 @@ public class PetProvider extends ContentProvider {
         if (weight != null && weight < 0) { // null is acceptable as the sqlite database will default to 0
             throw new IllegalArgumentException("Pet requires a valid weight!");
         }
+    }
+
+    // bind a new pet to the INSERT_COLUMNS insert, with a new uuid
+    private static void bindNewPet(SQLiteStatement statement, Pet pet) {
+        statement.bindString(PetMapper.bind(statement, pet), PetDbHelper.newPetUuid());
+    }
+
+    // validate the content values of a new pet and convert them to a Pet for PetMapper.bind
+    private static Pet toPet(ContentValues values) {
+        validatePet(values);
+        return PetMapper.fromContentValues(values);
+    }
+
+    // insert many pets in a single transaction, timed and traced
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] valuesArray) {
+
+        // get pattern match code for URI
+        final int match = match(uri);
+
+        PetShard shard = acquireShard(uri);
+        long begin = mMetrics.begin(PetMetrics.BULK_INSERT, metricsUri(match));
+        int rowsInserted = 0;
+        try {
+            rowsInserted = bulkInsert(shard, uri, match, valuesArray);
+            return rowsInserted;
+        } finally {
+            mShards.release(shard);
+            mMetrics.end(PetMetrics.BULK_INSERT, metricsUri(match), begin, rowsInserted);
+        }
+    }
+
+    // insert many pets in a single transaction, return the number of rows inserted
+    private int bulkInsert(PetShard shard, Uri uri, int match, ContentValues[] valuesArray) {
+
+        // like insert, only the full table can receive new rows
+        if (match != PETS) {
+            throw new IllegalArgumentException("Bulk insert is not supported for: " + uri);
+        }
+
+        // validate every row before touching the database so one bad row cannot leave a partial import
+        Pet[] pets = new Pet[valuesArray.length];
+        for (int i = 0; i < valuesArray.length; i++) {
+            pets[i] = toPet(valuesArray[i]);
+        }
 
         // get reference to writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteDatabase database = shard.dbHelper.getWritableDatabase();
 
-        // insert new row into the pets table and get the new row id
-        long newRowId = database.insert(PetEntry.TABLE_NAME, null, values);
+        // track the number of rows inserted
+        int rowsInserted = 0;
 
-        // if the insertion failed then newRowId = -1 and return null
-        if (newRowId == -1) {
-            Log.e(LOG_TAG, "Insertion failed for: " + uri);
-            return null;
+        // the insert is compiled once per thread, each row only rebinds its arguments
+        SQLiteStatement statement = shard.statementCache.get(PetStatementCache.INSERT, INSERT_COLUMNS);
+
+        // a single transaction means a single journal commit for the whole import
+        database.beginTransaction();
+        try {
+
+            for (Pet pet : pets) {
+                statement.clearBindings();
+                bindNewPet(statement, pet);
+                long id = statement.executeInsert();
+                if (id != -1) {
+                    rowsInserted++;
+
+                    // new _ids are never cached as single pets, but the snapshot has to pick them up
+                    shard.snapshot.invalidate(id);
+                }
+            }
+
+            database.setTransactionSuccessful();
+
+        } finally {
+            database.endTransaction();
         }
 
-        // if 1 or more rows of were inserted then notify all listeners to this URI
-        if (newRowId > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        // one notification for the whole import instead of one per row
+        if (rowsInserted != 0) {
+            notifyChange(uri);
         }
 
-        // return the new URI with the new ID appended to it
-        return ContentUris.withAppendedId(uri, newRowId);
+        return rowsInserted;
+    }
+
+    // apply a mix of insert, update and delete operations in a single transaction
+    // a transaction covers a single database, so every operation must address the same shelter
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        Uri shelterUri = operations.isEmpty() ? PetEntry.CONTENT_URI : operations.get(0).getUri();
+        for (ContentProviderOperation operation : operations) {
+            if (shelterOf(operation.getUri()) != shelterOf(shelterUri)) {
+                throw new OperationApplicationException("Batch addresses more than one shelter: " +
+                        operation.getUri());
+            }
+        }
+
+        PetShard shard = acquireShard(shelterUri);
+        try {
+            return applyBatch(shard, operations);
+        } finally {
+            mShards.release(shard);
+        }
+    }
+
+    // apply the operations to the shard's shelter in a single transaction
+    private ContentProviderResult[] applyBatch(PetShard shard, ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        // get reference to writable database
+        SQLiteDatabase database = shard.dbHelper.getWritableDatabase();
+
+        // defer notifications from the individual operations until the batch is done
+        mApplyingBatch.set(Boolean.TRUE);
+
+        ContentProviderResult[] results = null;
+        database.beginTransaction();
+
+        // the operations are also recorded one by one, the batch records its total time and operation count
+        long begin = mMetrics.begin(PetMetrics.APPLY_BATCH, metricsUri(PETS));
+        try {
+
+            // the superclass dispatches each operation back to insert, update and delete
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+
+        } finally {
+            database.endTransaction();
+            mApplyingBatch.remove();
+
+            // readers on other connections saw the old rows until the commit and may have cached them
+            shard.changedAll();
+
+            mMetrics.end(PetMetrics.APPLY_BATCH, metricsUri(PETS), begin, results == null ? 0 : results.length);
+        }
+
+        // one notification for the whole batch, observers of single pets are descendants of this URI
+        if (results.length != 0) {
+            notifyChange(ShelterEntry.scope(shard.shelterId, PetEntry.CONTENT_URI));
+        }
+
+        return results;
+    }
+
+    // true if the URI marks a write of the sync engine, see PetChangeEntry.asSyncAdapter
+    private static boolean isSyncAdapter(Uri uri) {
+        return uri.getBooleanQueryParameter(PetChangeEntry.QUERY_PARAMETER_CALLER_IS_SYNC_ADAPTER, false);
+    }
+
+    // start a write to the given URI, returns the mark to pass to endSyncWrite
+    // a write of the sync engine runs in a transaction that remembers where the change log ended,
+    // other writes get -1 and no transaction
+    private static long beginSyncWrite(PetShard shard, Uri uri) {
+
+        if (!isSyncAdapter(uri)) {
+            return -1;
+        }
+
+        SQLiteDatabase database = shard.dbHelper.getWritableDatabase();
+        database.beginTransaction();
+        return DatabaseUtils.longForQuery(database, SQL_LAST_SEQUENCE, null);
+    }
+
+    // end a write started by beginSyncWrite, successful tells whether the write went through
+    // the changes the triggers logged for a write of the sync engine came from the server,
+    // so they are dropped in the same transaction and never pushed back
+    private void endSyncWrite(PetShard shard, long logMark, boolean successful) {
+
+        if (logMark < 0) {
+            return;
+        }
+
+        SQLiteDatabase database = shard.dbHelper.getWritableDatabase();
+
+        if (successful) {
+            database.delete(PetChangeEntry.TABLE_NAME, SELECTION_AFTER_SEQUENCE,
+                    new String[] {String.valueOf(logMark)});
+            database.setTransactionSuccessful();
+        }
+        database.endTransaction();
+
+        // readers on other connections saw the old rows until the commit and may have cached them,
+        // unless a batch on this thread is still open and drops the caches when it commits
+        if (successful && mApplyingBatch.get() == null) {
+            shard.changedAll();
+        }
     }
 
-    // update data at the given selection
+    // mark this URI as changed so its listeners are notified when the current window closes,
+    // unless a batch on this thread will do it when it ends
+    private void notifyChange(Uri uri) {
+        if (mApplyingBatch.get() == null) {
+            mChangeNotifier.markDirty(uri);
+        }
+    }
+
+    // update data at the given selection, timed and traced
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
 
         // get pattern match code for URI
-        final int match = mUriMatcher.match(uri);
+        final int match = match(uri);
+
+        PetShard shard = acquireShard(uri);
+        long begin = mMetrics.begin(PetMetrics.UPDATE, metricsUri(match));
+        long logMark = -1;
+        boolean written = false;
+        int rowsUpdated = 0;
+        try {
+
+            // a write of the sync engine is kept out of the change log
+            logMark = beginSyncWrite(shard, uri);
+
+            rowsUpdated = update(shard, uri, match, contentValues, selection, selectionArgs);
+            written = true;
+            return rowsUpdated;
+        } finally {
+            endSyncWrite(shard, logMark, written);
+            mShards.release(shard);
+            mMetrics.end(PetMetrics.UPDATE, metricsUri(match), begin, rowsUpdated);
+        }
+    }
 
-        //
-        getContext().getContentResolver().notifyChange(uri, null);
+    // update data at the given selection of the URI of the shard's shelter with its pattern match code
+    private int update(PetShard shard, Uri uri, int match, ContentValues contentValues, String selection, String[] selectionArgs) {
 
         switch (match) {
 
@@ -187,22 +1293,13 @@ public class PetProvider extends ContentProvider {
             case PETS:
 
                 // helper method returns integer for number of rows updated
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                return updatePet(shard, uri, contentValues, selection, selectionArgs);
 
             // specific row in pets table
             case PET_ID:
 
-                // the ? and array pattern protects against SQL injection hacker attacks
-                // number of ? in selection must match number of elements in selectionArgs[]
-                // equivalent to string "_id=?"
-                selection = PetEntry._ID + "=?";
-
-                // parseId extracts only the integer id from the content URI
-                // equivalent to string "_id=#" where # is any integer
-                selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
-
-                // helper method returns integer for number of rows updated
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                // helper method returns integer for number of rows updated, zero or one
+                return updatePetById(shard, uri, contentValues);
 
             default:
                 throw new IllegalArgumentException("Update failed for: " + uri);
@@ -213,7 +1310,111 @@ public class PetProvider extends ContentProvider {
 
     // update pet(s) in database with given content values, return integer for number of rows updated
     // an update is an edit of existing data and affect any number of table values
-    private int updatePet(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    private int updatePet(PetShard shard, Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+
+        // throws if any value present is out of range
+        validatePetUpdate(values);
+
+        // the same writable columns as a single pet, so _ID and the uuid the sync engine relies on stay read only
+        PetStatementCache.columnsOf(values);
+
+        // a version belongs to a single pet
+        if (uri.getQueryParameter(PetEntry.QUERY_PARAMETER_EXPECTED_VERSION) != null) {
+            throw new IllegalArgumentException("Only a single pet can be updated by version: " + uri);
+        }
+
+        // a final check that there is actually something to update
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // get reference to writable database
+        SQLiteDatabase database = shard.dbHelper.getWritableDatabase();
+
+        // update row(s) in pets table, and get the number of total rows affected
+        // deleted pets are no longer visible, so they are never updated
+        int rowsUpdated = database.update(PetEntry.TABLE_NAME, values,
+                appendSelection(selection, PetDbHelper.NOT_DELETED), selectionArgs);
+
+        // if 1 or more rows of have changed then notify all listeners to this URI
+        // the selection can match any pet, so every cached pet is dropped
+        if (rowsUpdated != 0) {
+            shard.changedAll();
+            notifyChange(uri);
+        }
+
+        // return total number of rows updated
+        return rowsUpdated;
+
+    }
+
+    // update the single pet of the given content URI through a cached statement
+    // if the URI has an expected version, the pet is only updated if it still has that version
+    // return integer for number of rows updated, throws PetVersionConflictException on a version mismatch
+    private int updatePetById(PetShard shard, Uri uri, ContentValues values) {
+
+        // throws if any value present is out of range
+        validatePetUpdate(values);
+
+        // a final check that there is actually something to update
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        String expectedVersion = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_EXPECTED_VERSION);
+        long id = ContentUris.parseId(uri);
+
+        // the statement for this column set is compiled once and reused by later updates
+        // the column values are bound first, then the _id and the expected version if there is one
+        String[] columns = PetStatementCache.columnsOf(values);
+        SQLiteStatement statement = shard.statementCache.get(expectedVersion == null
+                ? PetStatementCache.UPDATE_BY_ID : PetStatementCache.UPDATE_BY_ID_AND_VERSION, columns);
+        PetStatementCache.bindValues(statement, columns, values);
+        statement.bindLong(columns.length + 1, id);
+        if (expectedVersion != null) {
+            statement.bindLong(columns.length + 2, parseQueryNumber(uri, expectedVersion));
+        }
+
+        // update the row, and get the number of total rows affected
+        int rowsUpdated = statement.executeUpdateDelete();
+
+        // nothing matched, either the pet is gone or another writer changed it first
+        if (rowsUpdated == 0 && expectedVersion != null) {
+            Cursor current = shard.dbHelper.getReadableDatabase().query(PetEntry.TABLE_NAME,
+                    new String[] {PetEntry.COLUMN_PETS_VERSION}, SELECTION_LIVE_ID, new String[] {String.valueOf(id)},
+                    null, null, null);
+            try {
+                if (current.moveToFirst()) {
+                    throw new PetVersionConflictException(id, parseQueryNumber(uri, expectedVersion),
+                            current.getLong(0));
+                }
+            } finally {
+                current.close();
+            }
+        }
+
+        // if the row has changed then notify all listeners to this URI
+        if (rowsUpdated != 0) {
+            shard.changed(id);
+            notifyChange(uri);
+        }
+
+        return rowsUpdated;
+
+    }
+
+    // check the values present in an update, throwing if any of them is invalid
+    private static void validatePetUpdate(ContentValues values) {
+
+        // the version is only ever changed by the database
+        if (values.containsKey(PetEntry.COLUMN_PETS_VERSION)) {
+            throw new IllegalArgumentException("Pet version cannot be updated!");
+        }
+
+        // pets are only deleted through delete
+        if (values.containsKey(PetDbHelper.COLUMN_DELETED)) {
+            throw new IllegalArgumentException("Pet deleted flag cannot be updated!");
+        }
 
         // check validity of name value, if it exists
         if (values.containsKey(PetEntry.COLUMN_PETS_NAME)) {
@@ -247,36 +1448,40 @@ public class PetProvider extends ContentProvider {
             }
         }
 
-        // a final check that there is actually something to update
-        if (values.size() == 0) {
-            return 0;
-        }
-
-        // get reference to writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+    }
 
-        // update row(s) in pets table, and get the number of total rows affected
-        int rowsUpdated = database.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
+    // delete data at the given selection, timed and traced
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
 
-        // if 1 or more rows of have changed then notify all listeners to this URI
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        // get pattern match code for URI
+        final int match = match(uri);
+
+        PetShard shard = acquireShard(uri);
+        long begin = mMetrics.begin(PetMetrics.DELETE, metricsUri(match));
+        long logMark = -1;
+        boolean written = false;
+        int rowsDeleted = 0;
+        try {
+
+            // a write of the sync engine is kept out of the change log
+            logMark = beginSyncWrite(shard, uri);
+
+            rowsDeleted = delete(shard, uri, match, selection, selectionArgs);
+            written = true;
+            return rowsDeleted;
+        } finally {
+            endSyncWrite(shard, logMark, written);
+            mShards.release(shard);
+            mMetrics.end(PetMetrics.DELETE, metricsUri(match), begin, rowsDeleted);
         }
-
-        // return total number of rows updated
-        return rowsUpdated;
-
     }
 
-    // delete data at the given selection
-    @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
+    // delete data at the given selection of the URI of the shard's shelter with its pattern match code
+    private int delete(PetShard shard, Uri uri, int match, String selection, String[] selectionArgs) {
 
         // get reference to writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-
-        // get pattern match code for URI
-        final int match = mUriMatcher.match(uri);
+        SQLiteDatabase database = shard.dbHelper.getWritableDatabase();
 
         // track the number of rows deleted
         int rowsDeleted;
@@ -286,46 +1491,212 @@ public class PetProvider extends ContentProvider {
             // full pets table
             case PETS:
 
-                // delete all rows at the selection and selection arguments
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                // mark all rows at the selection and selection arguments as deleted
+                // setting the flag touches no index and only fires the change log trigger, so even deleting every pet is quick
+                ContentValues deleted = new ContentValues(1);
+                deleted.put(PetDbHelper.COLUMN_DELETED, 1);
+                rowsDeleted = database.update(PetEntry.TABLE_NAME, deleted,
+                        appendSelection(selection, PetDbHelper.NOT_DELETED), selectionArgs);
+
+                // the selection can match any pet, so every cached pet is dropped
+                if (rowsDeleted != 0) {
+                    shard.changedAll();
+                }
                 break;
 
             // specific row in pets table
             case PET_ID:
 
-                // the ? and array pattern protects against SQL injection hacker attacks
-                // number of ? in selection must match number of elements in selectionArgs[]
-                // equivalent to string "_id=?"
-                selection = PetEntry._ID + "=?";
+                // the cached statement binds the ID as a number, without a selection string or array
+                SQLiteStatement statement = shard.statementCache.get(PetStatementCache.DELETE_BY_ID, NO_COLUMNS);
 
                 // parseId extracts only the integer id from the content URI
-                // equivalent to string "_id=#" where # is any integer
-                selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
-
-                // delete a single row given by the ID in the URI
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                long id = ContentUris.parseId(uri);
+                statement.bindLong(1, id);
+
+                // mark a single row given by the ID in the URI as deleted
+                rowsDeleted = statement.executeUpdateDelete();
+                if (rowsDeleted != 0) {
+                    shard.changed(id);
+                }
                 break;
 
+            // pushed changes, a delete on the log never touches a pet
+            case CHANGES:
+                return deleteChanges(database, uri, selection, selectionArgs);
+
+            // a whole shelter, which is the deletion of its files rather than of its rows
+            case SHELTER_ID:
+                return deleteShelter(uri, selection);
+
             default:
                 throw new IllegalArgumentException("Deletion is not supported for: " + uri);
 
         }
 
         // if 1 or more rows of were deleted then notify all listeners to this URI
+        // and purge the deleted rows once deletes have settled
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
+            shard.compactor.schedule();
         }
 
         return rowsDeleted;
 
     }
 
+    // delete the shelter of the given shelter URI with its database and photos, return 1 if it had a database
+    // this takes the same time however many pets the shelter has, and no other shelter waits for it
+    private int deleteShelter(Uri uri, String selection) {
+
+        if (selection != null) {
+            throw new IllegalArgumentException("Shelter delete cannot have a selection: " + uri);
+        }
+
+        long shelterId = ContentUris.parseId(uri);
+        boolean deleted = mShards.delete(shelterId);
+
+        File photos = PetPhotos.directory(getContext(), shelterId);
+        File[] files = photos.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        photos.delete();
+
+        // observers of every pets URI of the shelter are descendants of the shelter URI
+        if (deleted) {
+            notifyChange(uri);
+        }
+        return deleted ? 1 : 0;
+    }
+
+    // drop the changes up to the up_to_seq parameter, or every change of the pet in the pet_id or pet_uuid
+    // parameter, return the number of changes dropped
+    private static int deleteChanges(SQLiteDatabase database, Uri uri, String selection, String[] selectionArgs) {
+
+        if (selection != null) {
+            throw new IllegalArgumentException("Change log delete cannot have a selection: " + uri);
+        }
+
+        String upToSequence = uri.getQueryParameter(PetChangeEntry.QUERY_PARAMETER_UP_TO_SEQUENCE);
+        String petId = uri.getQueryParameter(PetChangeEntry.QUERY_PARAMETER_PET_ID);
+        String petUuid = uri.getQueryParameter(PetChangeEntry.QUERY_PARAMETER_PET_UUID);
+
+        // a delete without any parameter would silently lose every pending change
+        if (upToSequence != null) {
+            return database.delete(PetChangeEntry.TABLE_NAME, PetChangeEntry.COLUMN_SEQUENCE + "<=?",
+                    new String[] {String.valueOf(parseQueryNumber(uri, upToSequence))});
+        } else if (petId != null) {
+            return database.delete(PetChangeEntry.TABLE_NAME, PetChangeEntry.COLUMN_PET_ID + "=?",
+                    new String[] {String.valueOf(parseQueryNumber(uri, petId))});
+        } else if (petUuid != null) {
+            return database.delete(PetChangeEntry.TABLE_NAME, PetChangeEntry.COLUMN_PET_UUID + "=?",
+                    new String[] {petUuid});
+        }
+        throw new IllegalArgumentException("Change log delete needs up_to_seq, pet_id or pet_uuid: " + uri);
+    }
+
+    // open the photo of a pet, timed and traced
+    // mode "r" streams the photo, "w" or "wt" replaces it, the file is handed to the caller as is
+    // so a photo is never copied through memory or the database
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+
+        // get pattern match code for URI
+        final int match = match(uri);
+
+        PetShard shard = acquireShard(uri);
+        long begin = mMetrics.begin(PetMetrics.OPEN_FILE, metricsUri(match));
+        try {
+            return openFile(shard, uri, match, mode);
+        } finally {
+            mShards.release(shard);
+            mMetrics.end(PetMetrics.OPEN_FILE, metricsUri(match), begin, 0);
+        }
+    }
+
+    // open the file at the given URI of the shard's shelter with its pattern match code
+    private ParcelFileDescriptor openFile(PetShard shard, Uri uri, int match, String mode)
+            throws FileNotFoundException {
+
+        if (match != PHOTO) {
+            throw new FileNotFoundException("No file at: " + uri);
+        }
+
+        // the _ID is the segment before "photo"
+        List<String> segments = uri.getPathSegments();
+        final long id = Long.parseLong(segments.get(segments.size() - 2));
+        File photo = PetPhotos.file(getContext(), shard.shelterId, id);
+
+        // only the default shelter, which the catalog shows, has thumbnails
+        final PetThumbnailCache thumbnails = shard.thumbnails;
+
+        // a missing photo throws FileNotFoundException, which is what callers expect of a pet without one
+        if ("r".equals(mode)) {
+            return ParcelFileDescriptor.open(photo, ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+
+        if (!"w".equals(mode) && !"wt".equals(mode)) {
+            throw new IllegalArgumentException("Unsupported mode " + mode + " for: " + uri);
+        }
+
+        // a photo belongs to a pet, the compactor deletes it along with the pet
+        if (DatabaseUtils.queryNumEntries(shard.dbHelper.getReadableDatabase(), PetEntry.TABLE_NAME,
+                SELECTION_LIVE_ID, new String[] {String.valueOf(id)}) == 0) {
+            throw new FileNotFoundException("No pet for: " + uri);
+        }
+
+        File directory = photo.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new FileNotFoundException("Cannot create photo directory for: " + uri);
+        }
+
+        int fileMode = ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_CREATE |
+                ParcelFileDescriptor.MODE_TRUNCATE;
+
+        // the old thumbnail is dropped now, and a thumbnail made while the photo is being written is
+        // older than the finished photo, so the disk cache makes it again
+        if (thumbnails != null) {
+            thumbnails.invalidate(id);
+        }
+        notifyChange(uri);
+
+        // newer versions also tell when the writer is done, which drops anything made from the partial photo
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            final Uri photoUri = uri;
+            return ParcelFileDescriptor.open(photo, fileMode, new Handler(Looper.getMainLooper()),
+                    new ParcelFileDescriptor.OnCloseListener() {
+                        @Override
+                        public void onClose(IOException e) {
+                            if (thumbnails != null) {
+                                thumbnails.invalidate(id);
+                            }
+                            notifyChange(photoUri);
+                        }
+                    });
+        }
+        return ParcelFileDescriptor.open(photo, fileMode);
+    }
+
+    // open the photo of a pet with its length, so callers can size their buffers and show progress
+    @Override
+    public AssetFileDescriptor openAssetFile(Uri uri, String mode) throws FileNotFoundException {
+
+        ParcelFileDescriptor descriptor = openFile(uri, mode);
+
+        // the length of a file being written is not known yet
+        long length = "r".equals(mode) ? descriptor.getStatSize() : AssetFileDescriptor.UNKNOWN_LENGTH;
+        return new AssetFileDescriptor(descriptor, 0, length);
+    }
+
     // get MIMI data type at the content URI
     @Override
     public String getType(Uri uri) {
 
         // get pattern match code for URI
-        final int match = mUriMatcher.match(uri);
+        final int match = match(uri);
 
         switch (match) {
 
@@ -337,6 +1708,37 @@ public class PetProvider extends ContentProvider {
             case PET_ID:
                 return PetEntry.CONTENT_ITEM_TYPE;
 
+            // search results are a list of pets
+            case SEARCH:
+                return PetEntry.CONTENT_LIST_TYPE;
+
+            // aggregate rows
+            case COUNT_BY_GENDER:
+            case COUNT_BY_BREED:
+            case AVERAGE_WEIGHT:
+            case SUMMARY:
+            case WEIGHT_HISTOGRAM:
+                return PetEntry.CONTENT_STATS_TYPE;
+
+            // provider metrics
+            case DEBUG_METRICS:
+                return PetContract.CONTENT_DEBUG_TYPE;
+
+            // change log
+            case CHANGES:
+                return PetChangeEntry.CONTENT_LIST_TYPE;
+
+            // photo file of a pet
+            case PHOTO:
+                return PetEntry.CONTENT_PHOTO_TYPE;
+
+            // shelters
+            case SHELTERS:
+                return ShelterEntry.CONTENT_LIST_TYPE;
+
+            case SHELTER_ID:
+                return ShelterEntry.CONTENT_ITEM_TYPE;
+
             default:
                 throw new IllegalArgumentException("Unknown URI: " + uri + " with match = " + match);
         }
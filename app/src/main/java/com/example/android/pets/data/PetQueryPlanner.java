@@ -0,0 +1,283 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// answers a pets query whose filter spans several indexes by running one sub-query per index in parallel
+// as one statement sqlite reads a single index and checks every other condition row by row, here each
+// condition is a scan of its own index that only reads _IDs, the _ID sets are intersected in memory and
+// only the pets left are read from the table, again in parallel chunks
+// the sub-queries do not share a snapshot, so the chunks check every condition again, and a pet that
+// changed in between is only returned if it still matches, as with a single statement
+// sub-queries run on a small bounded pool plus the calling thread, each on a pooled read-only connection,
+// which the framework only keeps in WAL mode, so callers only plan queries on databases in WAL mode
+final class PetQueryPlanner {
+
+    // default number of pool threads, sqlite on android keeps a few read connections per database in WAL mode
+    // and more threads would only wait for one
+    static final int DEFAULT_THREADS = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 3));
+
+    // sub-queries waiting for a pool thread, beyond this the calling thread runs them itself
+    private static final int QUEUE_SIZE = 32;
+
+    // idle pool threads exit after this long
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    // _IDs bound into one IN list, which with the few arguments of the conditions stays below the limit
+    // of 999 variables of older sqlite builds
+    private static final int FETCH_CHUNK_SIZE = 500;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    PetQueryPlanner(int threads) {
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        }
+
+        final AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, PetQueryPlanner.class.getSimpleName() + "-" +
+                        count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+
+        // a full queue runs the sub-query on the calling thread, which slows down the caller instead of
+        // queueing without bound or failing the query
+        mExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), factory, new ThreadPoolExecutor.CallerRunsPolicy());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // stop the pool threads once the queued sub-queries are done
+    void quit() {
+        mExecutor.shutdown();
+    }
+
+    // the pets that are not deleted and match every condition, each a clause on the pets table followed by
+    // its arguments, with the given columns or PetMapper.COLUMNS if null
+    // in _ID order, only _IDs above afterId unless it is negative, and at most limit rows unless it is negative
+    // a sorted query is left to a single statement, whose ORDER BY ... LIMIT reads only the rows of its page
+    Cursor query(final SQLiteDatabase database, List<String[]> conditions, String[] projection, long afterId,
+                 long limit) {
+
+        // the _IDs matching each condition, sorted
+        List<Callable<long[]>> scans = new ArrayList<Callable<long[]>>(conditions.size());
+        for (final String[] condition : conditions) {
+            scans.add(new Callable<long[]>() {
+                @Override
+                public long[] call() {
+                    return queryIds(database, condition);
+                }
+            });
+        }
+        long[] ids = intersect(runAll(scans));
+
+        // only the _IDs after the previous page
+        int start = 0;
+        if (afterId >= 0) {
+            start = Arrays.binarySearch(ids, afterId);
+            start = start >= 0 ? start + 1 : -start - 1;
+        }
+
+        String[] columns = projection == null ? PetMapper.COLUMNS : projection;
+        MatrixCursor cursor = new MatrixCursor(columns);
+
+        // in _ID order, so only as many pets as the limit are read, plus more for any found deleted
+        List<Object[]> rows = new ArrayList<Object[]>();
+        int position = start;
+        while (position < ids.length && (limit < 0 || rows.size() < limit)) {
+            int end = limit < 0 ? ids.length : (int) Math.min(ids.length, position + limit - rows.size());
+            rows.addAll(fetch(database, columns, conditions, ids, position, end));
+            position = end;
+        }
+
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    // the sorted _IDs of the pets matching one condition, deleted or not
+    private static long[] queryIds(SQLiteDatabase database, String[] condition) {
+
+        String[] args = Arrays.copyOfRange(condition, 1, condition.length);
+        Cursor cursor = database.rawQuery("SELECT " + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME +
+                " WHERE " + condition[0], args);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+
+            // an index scan returns _IDs in index order
+            Arrays.sort(ids);
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // the _IDs present in every sorted array, smallest arrays first so each step only shrinks
+    private static long[] intersect(List<long[]> sets) {
+
+        long[][] sorted = sets.toArray(new long[sets.size()][]);
+        Arrays.sort(sorted, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return a.length - b.length;
+            }
+        });
+
+        long[] result = sorted[0];
+        for (int s = 1; s < sorted.length && result.length > 0; s++) {
+
+            long[] other = sorted[s];
+            long[] common = new long[result.length];
+            int size = 0;
+
+            for (int i = 0, j = 0; i < result.length && j < other.length; ) {
+                if (result[i] < other[j]) {
+                    i++;
+                } else if (result[i] > other[j]) {
+                    j++;
+                } else {
+                    common[size++] = result[i];
+                    i++;
+                    j++;
+                }
+            }
+            result = Arrays.copyOf(common, size);
+        }
+        return result;
+    }
+
+    // the rows of the pets from start to end of the _IDs that are not deleted and still match every condition,
+    // in _ID order, read in parallel chunks
+    private List<Object[]> fetch(final SQLiteDatabase database, final String[] columns,
+                                 final List<String[]> conditions, final long[] ids, int start, int end) {
+
+        List<Callable<List<Object[]>>> chunks = new ArrayList<Callable<List<Object[]>>>();
+        for (int from = start; from < end; from += FETCH_CHUNK_SIZE) {
+            final int chunkStart = from;
+            final int chunkEnd = Math.min(end, from + FETCH_CHUNK_SIZE);
+            chunks.add(new Callable<List<Object[]>>() {
+                @Override
+                public List<Object[]> call() {
+                    return fetchChunk(database, columns, conditions, ids, chunkStart, chunkEnd);
+                }
+            });
+        }
+
+        List<Object[]> rows = new ArrayList<Object[]>(end - start);
+        for (List<Object[]> chunk : runAll(chunks)) {
+            rows.addAll(chunk);
+        }
+        return rows;
+    }
+
+    // the rows of one chunk of _IDs, found through the primary key and checked against every condition
+    private static List<Object[]> fetchChunk(SQLiteDatabase database, String[] columns, List<String[]> conditions,
+                                             long[] ids, int start, int end) {
+
+        StringBuilder sql = new StringBuilder("SELECT ").append(TextUtils.join(", ", columns))
+                .append(" FROM ").append(PetEntry.TABLE_NAME)
+                .append(" WHERE ").append(PetDbHelper.NOT_DELETED);
+
+        List<String> args = new ArrayList<String>();
+        for (String[] condition : conditions) {
+            sql.append(" AND (").append(condition[0]).append(")");
+            args.addAll(Arrays.asList(condition).subList(1, condition.length));
+        }
+
+        sql.append(" AND ").append(PetEntry._ID).append(" IN (");
+        for (int i = start; i < end; i++) {
+            sql.append(i > start ? ",?" : "?");
+            args.add(String.valueOf(ids[i]));
+        }
+        sql.append(") ORDER BY ").append(PetEntry._ID);
+
+        Cursor cursor = database.rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+        try {
+            List<Object[]> rows = new ArrayList<Object[]>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                Object[] row = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    row[i] = PetShelterMerger.valueOf(cursor, i);
+                }
+                rows.add(row);
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // run the tasks in parallel, the first on the calling thread and the others on the pool,
+    // and return their results in task order, the first failure is thrown once every task was started
+    private <T> List<T> runAll(List<Callable<T>> tasks) {
+
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        try {
+            for (int i = 1; i < tasks.size(); i++) {
+                futures.add(mExecutor.submit(tasks.get(i)));
+            }
+
+            List<T> results = new ArrayList<T>(tasks.size());
+            if (!tasks.isEmpty()) {
+                results.add(tasks.get(0).call());
+            }
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a sub-query", e);
+        } catch (Exception e) {
+            throw rethrow(e);
+        } finally {
+
+            // after a failure nobody waits for the other tasks, done tasks ignore this
+            for (Future<T> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    // the exception to throw for the failure of a task, unchecked ones are thrown as they are
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return new IllegalStateException("Sub-query failed", cause);
+    }
+
+}
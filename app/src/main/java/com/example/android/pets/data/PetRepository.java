@@ -0,0 +1,143 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// queues writes to the pet provider on a background thread and reports each result on the main thread
+// activities use this instead of calling the content resolver directly, so a locked or large
+// database never stalls the UI
+public class PetRepository {
+
+    // tag for log messages
+    private static final String LOG_TAG = PetRepository.class.getSimpleName();
+
+    // a single thread for the whole process runs writes in the order they were requested
+    private static final ExecutorService WRITE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    // results are delivered on the main thread, where callers show toasts and finish activities
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    // receives the content URI of a new pet, or null if the insert failed
+    public interface InsertCallback {
+        void onInsertComplete(Uri newPetUri);
+    }
+
+    // receives the number of rows updated or deleted, zero if the write failed
+    // or VERSION_CONFLICT if a versioned update found the pet changed by another writer
+    public interface WriteCallback {
+        void onWriteComplete(int rowsAffected);
+    }
+
+    // result of an update whose expected version no longer matched, see PetEntry.buildVersionedUri
+    public static final int VERSION_CONFLICT = -1;
+
+    // application content resolver, so a queued write never holds on to an activity
+    private final ContentResolver mResolver;
+
+    public PetRepository(Context context) {
+        mResolver = context.getApplicationContext().getContentResolver();
+    }
+
+    // insert a new pet, callback may be null if the caller does not need the result
+    public void insertPet(final ContentValues values, final InsertCallback callback) {
+
+        WRITE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+
+                Uri newPetUri = null;
+                try {
+                    newPetUri = mResolver.insert(PetEntry.CONTENT_URI, values);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Insert failed for: " + values, e);
+                }
+
+                deliverInsert(callback, newPetUri);
+            }
+        });
+    }
+
+    // update the pet(s) at the given content URI, callback may be null
+    // a URI from PetEntry.buildVersionedUri only updates the pet if nobody changed it since it was loaded
+    public void updatePet(final Uri uri, final ContentValues values, final WriteCallback callback) {
+
+        WRITE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+
+                int rowsUpdated = 0;
+                try {
+                    rowsUpdated = mResolver.update(uri, values, null, null);
+                } catch (PetVersionConflictException e) {
+                    Log.w(LOG_TAG, "Update conflict for: " + uri + ", " + e.getMessage());
+                    rowsUpdated = VERSION_CONFLICT;
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Update failed for: " + uri, e);
+                }
+
+                deliverWrite(callback, rowsUpdated);
+            }
+        });
+    }
+
+    // delete the pet(s) at the given content URI, callback may be null
+    // the pets content URI deletes every pet
+    public void deletePets(final Uri uri, final WriteCallback callback) {
+
+        WRITE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+
+                int rowsDeleted = 0;
+                try {
+                    rowsDeleted = mResolver.delete(uri, null, null);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Delete failed for: " + uri, e);
+                }
+
+                deliverWrite(callback, rowsDeleted);
+            }
+        });
+    }
+
+    // post an insert result to the main thread
+    private static void deliverInsert(final InsertCallback callback, final Uri newPetUri) {
+
+        if (callback == null) {
+            return;
+        }
+
+        MAIN_HANDLER.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onInsertComplete(newPetUri);
+            }
+        });
+    }
+
+    // post an update or delete result to the main thread
+    private static void deliverWrite(final WriteCallback callback, final int rowsAffected) {
+
+        if (callback == null) {
+            return;
+        }
+
+        MAIN_HANDLER.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onWriteComplete(rowsAffected);
+            }
+        });
+    }
+
+}
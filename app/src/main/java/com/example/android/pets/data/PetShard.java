@@ -0,0 +1,94 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.ShelterEntry;
+
+// everything PetProvider keeps per shelter database
+// the shelters share nothing else, so a shelter being compacted, vacuumed or written in bulk
+// holds the locks of its own file only and never slows down the others
+final class PetShard {
+
+    final long shelterId;
+
+    final PetDbHelper dbHelper;
+
+    // compiled statements for single pet writes and bulk inserts
+    final PetStatementCache statementCache;
+
+    // single pets read through this cache, whose keys are only unique within the shelter
+    final PetCache petCache;
+
+    // columns of every pet for reports, built on first use
+    final PetSnapshot snapshot;
+
+    // purges soft deleted pets in the background
+    final PetCompactor compactor;
+
+    // thumbnails of the photos of the default shelter, the one the catalog shows, null for other shelters
+    final PetThumbnailCache thumbnails;
+
+    // calls currently using the shard, guarded by the PetShardPool
+    int references;
+
+    private PetShard(long shelterId, PetDbHelper dbHelper, PetCache petCache, PetCompactor compactor,
+                     PetThumbnailCache thumbnails) {
+        this.shelterId = shelterId;
+        this.dbHelper = dbHelper;
+        this.statementCache = new PetStatementCache(dbHelper);
+        this.petCache = petCache;
+        this.snapshot = new PetSnapshot(dbHelper);
+        this.compactor = compactor;
+        this.thumbnails = thumbnails;
+    }
+
+    // create the shard of the given shelter, this does not open its database yet
+    static PetShard open(Context context, long shelterId, SQLiteDatabase.CursorFactory cursorFactory) {
+
+        boolean isDefault = shelterId == ShelterEntry.DEFAULT_SHELTER_ID;
+
+        PetDbHelper dbHelper = new PetDbHelper(context, PetDbHelper.databaseName(shelterId), PetDbSettings.DEFAULT,
+                cursorFactory);
+
+        // the process-wide cache outlives providers, anything in it may have come from another database
+        PetCache petCache;
+        if (isDefault) {
+            petCache = PetCache.getInstance();
+            petCache.invalidateAll();
+        } else {
+            petCache = new PetCache(PetCache.DEFAULT_MAX_PETS);
+        }
+
+        PetThumbnailCache thumbnails = isDefault ? PetThumbnailCache.getInstance(context) : null;
+
+        // deletes only mark pets, the compactor purges them later along with their photos
+        // pets deleted before the shard was last closed are picked up by a first compaction
+        PetCompactor compactor = new PetCompactor(context, dbHelper, PetCompactor.DEFAULT_DELAY_MILLIS,
+                PetCompactor.DEFAULT_CHUNK_SIZE, PetPhotos.directory(context, shelterId), thumbnails);
+        compactor.schedule();
+
+        return new PetShard(shelterId, dbHelper, petCache, compactor, thumbnails);
+    }
+
+    // the pet with the given _ID was written, drop whatever is kept of it in memory
+    void changed(long id) {
+        petCache.invalidate(id);
+        snapshot.invalidate(id);
+    }
+
+    // a write may have touched any pet
+    void changedAll() {
+        petCache.invalidateAll();
+        snapshot.invalidateAll();
+    }
+
+    // stop the compactor and close the database, the shard cannot be used afterwards
+    // quit waits for a running compaction to stop, so it never finds the database closed under it
+    void close() {
+        compactor.quit();
+        statementCache.close();
+        dbHelper.close();
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.CrossProcessCursorWrapper;
+
+// result of a query on a shelter other than the default one, holding on to its shard until closed
+// a database cursor fills its windows as the caller moves through it, which a closed database cannot do,
+// so the pool must not close the shard before the caller is done with the cursor
+// the cross process wrapper keeps filling the binder's window straight from the database cursor
+final class PetShardCursor extends CrossProcessCursorWrapper {
+
+    private final PetShardPool mShards;
+
+    // null once released, guarded by this since a cursor may be closed from any thread
+    private PetShard mShard;
+
+    PetShardCursor(Cursor cursor, PetShardPool shards, PetShard shard) {
+        super(cursor);
+        mShards = shards;
+        mShard = shard;
+    }
+
+    @Override
+    public void close() {
+        try {
+            super.close();
+        } finally {
+            release();
+        }
+    }
+
+    // release the shard once, however often the cursor is closed
+    private void release() {
+
+        PetShard shard;
+        synchronized (this) {
+            shard = mShard;
+            mShard = null;
+        }
+
+        if (shard != null) {
+            mShards.release(shard);
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.ShelterEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// the open shelter databases of PetProvider
+// the default shelter stays open, the others are opened on first use and the least recently used ones
+// are closed beyond a fixed number, so serving many shelters does not hold a connection pool,
+// a statement cache and a compactor thread for each of them
+// a shard in use by a call or an open cursor is never closed under it,
+// the pool runs over its limit until it is released
+// closing a shard waits for its compactor, which may be inside a VACUUM, so shards are only unlinked under
+// the pool's lock and closed after leaving it, and only callers of a shelter being closed wait for it
+final class PetShardPool {
+
+    // shelters besides the default one kept open
+    static final int DEFAULT_MAX_OPEN_SHARDS = 8;
+
+    private final Context mContext;
+
+    private final SQLiteDatabase.CursorFactory mCursorFactory;
+
+    private final int mMaxOpenShards;
+
+    // created on first use, usually by PetWarmUp, guarded by this
+    private PetShard mDefaultShard;
+
+    // open shards of the other shelters in access order, guarded by this
+    private final LinkedHashMap<Long, PetShard> mShards = new LinkedHashMap<Long, PetShard>(16, 0.75f, true);
+
+    // shelters whose shard is unlinked but still being closed, or whose database is being deleted,
+    // guarded by this and waited on until they are done
+    private final Set<Long> mClosing = new HashSet<Long>();
+
+    PetShardPool(Context context, SQLiteDatabase.CursorFactory cursorFactory, int maxOpenShards) {
+
+        if (maxOpenShards <= 0) {
+            throw new IllegalArgumentException("Open shard limit must be positive: " + maxOpenShards);
+        }
+
+        mContext = context.getApplicationContext();
+        mCursorFactory = cursorFactory;
+        mMaxOpenShards = maxOpenShards;
+    }
+
+    // the shard of the default shelter, which needs no release
+    synchronized PetShard getDefault() {
+        if (mDefaultShard == null) {
+            mDefaultShard = PetShard.open(mContext, ShelterEntry.DEFAULT_SHELTER_ID, mCursorFactory);
+        }
+        return mDefaultShard;
+    }
+
+    // the shard of the given shelter, opened if needed, to be passed to release when the call is done
+    PetShard acquire(long shelterId) {
+
+        if (shelterId == ShelterEntry.DEFAULT_SHELTER_ID) {
+            return getDefault();
+        }
+
+        PetShard shard;
+        List<PetShard> idle;
+        synchronized (this) {
+
+            // a shard of this shelter still closing may be in a VACUUM, a second one would only wait on it
+            awaitClosed(shelterId);
+
+            shard = mShards.get(shelterId);
+            if (shard == null) {
+                shard = PetShard.open(mContext, shelterId, mCursorFactory);
+                mShards.put(shelterId, shard);
+            }
+            shard.references++;
+
+            idle = unlinkIdle();
+        }
+
+        close(idle);
+        return shard;
+    }
+
+    // end a use of a shard returned by acquire
+    void release(PetShard shard) {
+
+        if (shard.shelterId == ShelterEntry.DEFAULT_SHELTER_ID) {
+            return;
+        }
+
+        List<PetShard> idle;
+        synchronized (this) {
+            shard.references--;
+            idle = unlinkIdle();
+        }
+
+        close(idle);
+    }
+
+    // close the shard of the given shelter and delete its database, returns false if it had none
+    // throws if a call or an open cursor is using it, and the default shelter cannot be deleted
+    boolean delete(long shelterId) {
+
+        if (shelterId == ShelterEntry.DEFAULT_SHELTER_ID) {
+            throw new IllegalArgumentException("The default shelter cannot be deleted");
+        }
+
+        PetShard shard;
+        synchronized (this) {
+            awaitClosed(shelterId);
+
+            shard = mShards.get(shelterId);
+            if (shard != null && shard.references > 0) {
+                throw new IllegalStateException("Shelter " + shelterId + " is in use");
+            }
+            mShards.remove(shelterId);
+
+            // no call opens the shelter again until its database is gone
+            mClosing.add(shelterId);
+        }
+
+        try {
+            if (shard != null) {
+                shard.close();
+            }
+
+            // removes the journal, WAL and shared memory files along with the database
+            return mContext.deleteDatabase(PetDbHelper.databaseName(shelterId));
+        } finally {
+            closed(shelterId);
+        }
+    }
+
+    // every shelter that has a database, the default one first and then in id order
+    long[] shelterIds() {
+
+        String[] names = mContext.databaseList();
+        long[] ids = new long[names.length + 1];
+        int count = 0;
+
+        ids[count++] = ShelterEntry.DEFAULT_SHELTER_ID;
+        for (String name : names) {
+            long id = PetDbHelper.shelterIdOf(name);
+            if (id > ShelterEntry.DEFAULT_SHELTER_ID) {
+                ids[count++] = id;
+            }
+        }
+
+        ids = Arrays.copyOf(ids, count);
+        Arrays.sort(ids, 1, count);
+        return ids;
+    }
+
+    // close every shard, called when the provider shuts down
+    void closeAll() {
+
+        List<PetShard> shards;
+        PetShard defaultShard;
+        synchronized (this) {
+            shards = new ArrayList<PetShard>(mShards.values());
+            for (PetShard shard : shards) {
+                mClosing.add(shard.shelterId);
+            }
+            mShards.clear();
+            defaultShard = mDefaultShard;
+            mDefaultShard = null;
+        }
+
+        close(shards);
+        if (defaultShard != null) {
+            defaultShard.close();
+        }
+    }
+
+    // unlink the least recently used shards no call is using until the pool is within its limit,
+    // returns them to be closed once the lock is released
+    // called with this held
+    private List<PetShard> unlinkIdle() {
+
+        List<PetShard> idle = Collections.emptyList();
+        Iterator<Map.Entry<Long, PetShard>> eldest = mShards.entrySet().iterator();
+        while (mShards.size() > mMaxOpenShards && eldest.hasNext()) {
+            PetShard shard = eldest.next().getValue();
+            if (shard.references == 0) {
+                eldest.remove();
+                if (idle.isEmpty()) {
+                    idle = new ArrayList<PetShard>();
+                }
+                idle.add(shard);
+                mClosing.add(shard.shelterId);
+            }
+        }
+        return idle;
+    }
+
+    // close shards unlinked by unlinkIdle or closeAll, called without this held
+    private void close(List<PetShard> shards) {
+        for (PetShard shard : shards) {
+            try {
+                shard.close();
+            } finally {
+                closed(shard.shelterId);
+            }
+        }
+    }
+
+    // the shard of the shelter is closed, callers waiting for it can go on
+    private synchronized void closed(long shelterId) {
+        mClosing.remove(shelterId);
+        notifyAll();
+    }
+
+    // wait until no shard of the shelter is being closed, an interrupt is kept for the caller
+    // called with this held
+    private void awaitClosed(long shelterId) {
+
+        boolean interrupted = false;
+        while (mClosing.contains(shelterId)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,275 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+// merges the results of one query run on every shelter into a single cursor
+// each shelter's cursor is already filtered, sorted and limited by its own database, so pets are merged
+// in one pass over the heads of the cursors and aggregates are combined from one row per group and shelter
+final class PetShelterMerger {
+
+    private PetShelterMerger() {
+    }
+
+    // columns to ask every shelter for, the requested ones plus whatever the merge needs to order them
+    static String[] withSortColumns(String[] columns, String sort) {
+
+        List<String> merged = new ArrayList<String>(Arrays.asList(columns));
+        if (!merged.contains(PetEntry._ID)) {
+            merged.add(PetEntry._ID);
+        }
+
+        String sortColumn = sortColumnOf(sort);
+        if (sortColumn != null && !merged.contains(sortColumn)) {
+            merged.add(sortColumn);
+        }
+        return merged.toArray(new String[merged.size()]);
+    }
+
+    // pets of every shelter with the requested columns and the shelter_id column, in the order of the
+    // sort parameter or, without one, shelter by shelter, and at most limit of them unless limit is negative
+    // the cursors are read but not closed
+    static MatrixCursor mergePets(List<Cursor> cursors, long[] shelterIds, String[] columns, String sort,
+                                  long limit) {
+
+        String[] mergedColumns = Arrays.copyOf(columns, columns.length + 1);
+        mergedColumns[columns.length] = ShelterEntry.COLUMN_SHELTER_ID;
+        MatrixCursor merged = new MatrixCursor(mergedColumns);
+
+        String sortColumn = sortColumnOf(sort);
+        if (sortColumn == null) {
+            for (int i = 0; i < cursors.size() && limit != 0; i++) {
+                Cursor cursor = cursors.get(i);
+                while (limit != 0 && cursor.moveToNext()) {
+                    addPet(merged, cursor, columns, shelterIds[i]);
+                    limit--;
+                }
+            }
+            return merged;
+        }
+
+        // the heads of the shelters' cursors, the next pet overall is always at the top
+        PriorityQueue<Head> heads = new PriorityQueue<Head>(Math.max(1, cursors.size()),
+                headOrder(sortColumn, PetEntry.SORT_NAME_DESC.equals(sort) || PetEntry.SORT_WEIGHT_DESC.equals(sort)));
+        for (int i = 0; i < cursors.size(); i++) {
+            Cursor cursor = cursors.get(i);
+            if (cursor.moveToFirst()) {
+                heads.add(new Head(cursor, shelterIds[i], cursor.getColumnIndexOrThrow(sortColumn),
+                        cursor.getColumnIndexOrThrow(PetEntry._ID)));
+            }
+        }
+
+        while (limit != 0 && !heads.isEmpty()) {
+            Head head = heads.poll();
+            addPet(merged, head.cursor, columns, head.shelterId);
+            limit--;
+
+            if (head.cursor.moveToNext()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    // sum of the count column of every shelter per value of the key column, one row per value
+    // ordered the way sqlite groups them, null first, then numbers, then text
+    static MatrixCursor mergeCounts(List<Cursor> cursors, String keyColumn) {
+
+        long nullCount = 0;
+        boolean hasNull = false;
+        TreeMap<Object, Long> counts = new TreeMap<Object, Long>(KEY_ORDER);
+
+        for (Cursor cursor : cursors) {
+            int keyIndex = cursor.getColumnIndexOrThrow(keyColumn);
+            int countIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_COUNT);
+
+            while (cursor.moveToNext()) {
+                long count = cursor.getLong(countIndex);
+                Object key = valueOf(cursor, keyIndex);
+                if (key == null) {
+                    hasNull = true;
+                    nullCount += count;
+                } else {
+                    Long total = counts.get(key);
+                    counts.put(key, total == null ? count : total + count);
+                }
+            }
+        }
+
+        MatrixCursor merged = new MatrixCursor(new String[] {keyColumn, PetEntry.COLUMN_COUNT});
+        if (hasNull) {
+            merged.addRow(new Object[] {null, nullCount});
+        }
+        for (Object key : counts.keySet()) {
+            merged.addRow(new Object[] {key, counts.get(key)});
+        }
+        return merged;
+    }
+
+    // average weight over every shelter, each shelter's average weighted by its number of pets
+    // null, like AVG, when no shelter has a pet
+    static MatrixCursor mergeAverages(List<Cursor> cursors) {
+
+        double total = 0;
+        long count = 0;
+
+        for (Cursor cursor : cursors) {
+            int averageIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_AVERAGE_WEIGHT);
+            int countIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_COUNT);
+
+            if (cursor.moveToFirst() && !cursor.isNull(averageIndex)) {
+                long shelterCount = cursor.getLong(countIndex);
+                total += cursor.getDouble(averageIndex) * shelterCount;
+                count += shelterCount;
+            }
+        }
+
+        MatrixCursor merged = new MatrixCursor(new String[] {PetEntry.COLUMN_AVERAGE_WEIGHT, PetEntry.COLUMN_COUNT});
+        merged.addRow(new Object[] {count == 0 ? null : total / count, count});
+        return merged;
+    }
+
+    // the current row of a shelter's cursor and what is needed to compare it
+    private static final class Head {
+        final Cursor cursor;
+        final long shelterId;
+        final int sortIndex;
+        final int idIndex;
+
+        Head(Cursor cursor, long shelterId, int sortIndex, int idIndex) {
+            this.cursor = cursor;
+            this.shelterId = shelterId;
+            this.sortIndex = sortIndex;
+            this.idIndex = idIndex;
+        }
+    }
+
+    // column the sort parameter orders by, null for no sort parameter
+    private static String sortColumnOf(String sort) {
+        if (PetEntry.SORT_NAME.equals(sort) || PetEntry.SORT_NAME_DESC.equals(sort)) {
+            return PetEntry.COLUMN_PETS_NAME;
+        } else if (PetEntry.SORT_WEIGHT.equals(sort) || PetEntry.SORT_WEIGHT_DESC.equals(sort)) {
+            return PetEntry.COLUMN_PETS_WEIGHT;
+        }
+        return null;
+    }
+
+    // the order of the provider's ORDER BY for the sort, see PetProvider.buildSortOrder, then by shelter
+    // so pets with the same _ID in different shelters still come out in a fixed order
+    private static Comparator<Head> headOrder(final String sortColumn, final boolean descending) {
+        final boolean byName = PetEntry.COLUMN_PETS_NAME.equals(sortColumn);
+        return new Comparator<Head>() {
+            @Override
+            public int compare(Head a, Head b) {
+
+                int order;
+                if (byName) {
+                    order = compareNoCase(a.cursor.getString(a.sortIndex), b.cursor.getString(b.sortIndex));
+                } else {
+                    order = compareLongs(a.cursor.getLong(a.sortIndex), b.cursor.getLong(b.sortIndex));
+                }
+                if (order == 0) {
+                    order = compareLongs(a.cursor.getLong(a.idIndex), b.cursor.getLong(b.idIndex));
+                }
+                if (descending) {
+                    order = -order;
+                }
+                return order != 0 ? order : compareLongs(a.shelterId, b.shelterId);
+            }
+        };
+    }
+
+    // sqlite's NOCASE collation, which only folds ASCII letters, nulls first
+    private static int compareNoCase(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x >= 'A' && x <= 'Z') {
+                x += 'a' - 'A';
+            }
+            if (y >= 'A' && y <= 'Z') {
+                y += 'a' - 'A';
+            }
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    // group keys in sqlite's order, numbers before text
+    private static final Comparator<Object> KEY_ORDER = new Comparator<Object>() {
+        @Override
+        public int compare(Object a, Object b) {
+            boolean aNumber = a instanceof Number;
+            boolean bNumber = b instanceof Number;
+            if (aNumber != bNumber) {
+                return aNumber ? -1 : 1;
+            }
+            if (aNumber) {
+                return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+            }
+            return a.toString().compareTo(b.toString());
+        }
+    };
+
+    // copy the requested columns of the current row and its shelter into the merged cursor
+    private static void addPet(MatrixCursor merged, Cursor cursor, String[] columns, long shelterId) {
+        Object[] row = new Object[columns.length + 1];
+        for (int i = 0; i < columns.length; i++) {
+            row[i] = valueOf(cursor, cursor.getColumnIndexOrThrow(columns[i]));
+        }
+        row[columns.length] = shelterId;
+        merged.addRow(row);
+    }
+
+    // every row of a shelter's cursor in memory, so its shard can be released before the next shelter is queried
+    // the cursor is read but not closed
+    static MatrixCursor copyOf(Cursor cursor) {
+        MatrixCursor copy = new MatrixCursor(cursor.getColumnNames(), cursor.getCount());
+        while (cursor.moveToNext()) {
+            Object[] row = new Object[cursor.getColumnCount()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = valueOf(cursor, i);
+            }
+            copy.addRow(row);
+        }
+        return copy;
+    }
+
+    // the value of a column with the type it has in the row
+    static Object valueOf(Cursor cursor, int index) {
+        switch (cursor.getType(index)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(index);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(index);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(index);
+            default:
+                return cursor.getString(index);
+        }
+    }
+
+}
@@ -0,0 +1,466 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// column by column copy of the pets of one shelter in primitive arrays, for reports that scan every pet
+// _ID, gender and weight are stored as numbers and breed and name as codes into a dictionary of their values,
+// so a group-by or histogram is a pass over a few arrays with no cursor, window or string in between
+// the copy is built on first use and then only the pets written since the last use are read again,
+// the provider reports every write to invalidate, the same way it keeps PetCache up to date
+final class PetSnapshot {
+
+    // groups of summary and weightHistogram, also the names of their group column
+    static final String GROUP_GENDER = PetEntry.COLUMN_PETS_GENDER;
+    static final String GROUP_BREED = PetEntry.COLUMN_PETS_BREED;
+    static final String GROUP_NAME = PetEntry.COLUMN_PETS_NAME;
+
+    // returns true if the group is null, for no grouping, or one of the GROUP_ values
+    static boolean isValidGroup(String group) {
+        return group == null || GROUP_GENDER.equals(group) || GROUP_BREED.equals(group) || GROUP_NAME.equals(group);
+    }
+
+    // code of a pet without a breed
+    private static final int NO_BREED = -1;
+
+    // pets written since the last refresh beyond which it reads every pet again instead
+    private static final int MAX_DIRTY_IDS = 4096;
+
+    // _IDs bound into one IN list, below the limit of 999 variables of older sqlite builds
+    private static final int FETCH_CHUNK_SIZE = 500;
+
+    // histogram cells, groups times buckets, allocated for one call
+    private static final int MAX_HISTOGRAM_CELLS = 1 << 20;
+
+    // columns read from the pets table, in the order Columns.read expects them
+    private static final String COLUMNS = PetEntry._ID + ", " + PetEntry.COLUMN_PETS_GENDER + ", " +
+            PetEntry.COLUMN_PETS_WEIGHT + ", " + PetEntry.COLUMN_PETS_BREED + ", " + PetEntry.COLUMN_PETS_NAME;
+
+    private final SQLiteOpenHelper mDbHelper;
+
+    // pets written since the last refresh, guarded by mDirtyLock rather than this so a write never waits
+    // for a refresh, and a flag for writes that may have touched any pet, set until the first build
+    private final Object mDirtyLock = new Object();
+    private Set<Long> mDirtyIds = new HashSet<Long>();
+    private boolean mAllDirty = true;
+
+    // the pets that are not deleted in _ID order, guarded by this
+    private Columns mColumns = new Columns(0);
+
+    // values of the breed and name codes, guarded by this, codes are only dropped by a full rebuild
+    private Dictionary mBreeds = new Dictionary();
+    private Dictionary mNames = new Dictionary();
+
+    PetSnapshot(SQLiteOpenHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    // the pet with the given _ID was written, called after the write, inside its transaction or not
+    void invalidate(long id) {
+        synchronized (mDirtyLock) {
+            if (!mAllDirty) {
+                mDirtyIds.add(id);
+                if (mDirtyIds.size() > MAX_DIRTY_IDS) {
+                    mAllDirty = true;
+                    mDirtyIds.clear();
+                }
+            }
+        }
+    }
+
+    // a write may have touched any pet
+    void invalidateAll() {
+        synchronized (mDirtyLock) {
+            mAllDirty = true;
+            mDirtyIds.clear();
+        }
+    }
+
+    // number of pets and their average weight per value of the group, or over every pet if the group is null
+    // ordered the way sqlite groups values, null first, groups without pets are left out
+    synchronized MatrixCursor summary(String group) {
+
+        refresh();
+
+        Columns columns = mColumns;
+        int[] codes = groupCodes(group);
+        int groups = groupCount(group);
+        long[] counts = new long[groups];
+        long[] weights = new long[groups];
+
+        // one pass over two arrays
+        for (int i = 0; i < columns.size; i++) {
+            int code = codes[i];
+            counts[code]++;
+            weights[code] += columns.weights[i];
+        }
+
+        MatrixCursor cursor = new MatrixCursor(group == null ?
+                new String[] {PetEntry.COLUMN_COUNT, PetEntry.COLUMN_AVERAGE_WEIGHT} :
+                new String[] {group, PetEntry.COLUMN_COUNT, PetEntry.COLUMN_AVERAGE_WEIGHT});
+
+        // like AVG, the single row of an empty shelter has a null average
+        if (group == null) {
+            cursor.addRow(new Object[] {counts[0], counts[0] == 0 ? null : (double) weights[0] / counts[0]});
+            return cursor;
+        }
+
+        for (int code : groupOrder(group, groups)) {
+            if (counts[code] > 0) {
+                cursor.addRow(new Object[] {groupValue(group, code), counts[code],
+                        (double) weights[code] / counts[code]});
+            }
+        }
+        return cursor;
+    }
+
+    // number of pets per weight bucket of the given width, also per value of the group unless it is null,
+    // ordered by group as in summary and then by bucket, empty buckets are left out
+    // the weight column holds the lowest weight of the bucket
+    synchronized MatrixCursor weightHistogram(int bucketWidth, String group) {
+
+        if (bucketWidth <= 0) {
+            throw new IllegalArgumentException("Bucket width must be positive: " + bucketWidth);
+        }
+
+        refresh();
+
+        Columns columns = mColumns;
+        int maxWeight = 0;
+        for (int i = 0; i < columns.size; i++) {
+            maxWeight = Math.max(maxWeight, columns.weights[i]);
+        }
+
+        int buckets = maxWeight / bucketWidth + 1;
+        int groups = groupCount(group);
+        if ((long) buckets * groups > MAX_HISTOGRAM_CELLS) {
+            throw new IllegalArgumentException("Too many buckets of width " + bucketWidth + " for " + groups +
+                    " groups");
+        }
+
+        // one flat array of counts, the buckets of a group followed by those of the next
+        int[] codes = groupCodes(group);
+        long[] counts = new long[buckets * groups];
+        for (int i = 0; i < columns.size; i++) {
+            counts[codes[i] * buckets + columns.weights[i] / bucketWidth]++;
+        }
+
+        MatrixCursor cursor = new MatrixCursor(group == null ?
+                new String[] {PetEntry.COLUMN_PETS_WEIGHT, PetEntry.COLUMN_COUNT} :
+                new String[] {group, PetEntry.COLUMN_PETS_WEIGHT, PetEntry.COLUMN_COUNT});
+
+        for (int code : groupOrder(group, groups)) {
+            for (int bucket = 0; bucket < buckets; bucket++) {
+
+                long count = counts[code * buckets + bucket];
+                if (count == 0) {
+                    continue;
+                }
+
+                long weight = (long) bucket * bucketWidth;
+                cursor.addRow(group == null ? new Object[] {weight, count} :
+                        new Object[] {groupValue(group, code), weight, count});
+            }
+        }
+        return cursor;
+    }
+
+    // number of pets as of the last refresh
+    synchronized int size() {
+        return mColumns.size;
+    }
+
+    // the group code of every row, codes run from 0 to groupCount - 1
+    private int[] groupCodes(String group) {
+        if (GROUP_GENDER.equals(group)) {
+            return mColumns.genders;
+        } else if (GROUP_BREED.equals(group)) {
+
+            // shifted by one so pets without a breed are group 0
+            int[] codes = new int[mColumns.size];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = mColumns.breeds[i] + 1;
+            }
+            return codes;
+        } else if (GROUP_NAME.equals(group)) {
+            return mColumns.names;
+        }
+        return new int[mColumns.size];
+    }
+
+    // number of group codes
+    private int groupCount(String group) {
+        if (group == null) {
+            return 1;
+        } else if (GROUP_GENDER.equals(group)) {
+            return PetEntry.GENDER_FEMALE + 1;
+        } else if (GROUP_BREED.equals(group)) {
+            return mBreeds.size() + 1;
+        } else if (GROUP_NAME.equals(group)) {
+            return mNames.size();
+        }
+        throw new IllegalArgumentException("Unknown group: " + group);
+    }
+
+    // the value of a group code as reported in the group column
+    private Object groupValue(String group, int code) {
+        if (GROUP_GENDER.equals(group)) {
+            return (long) code;
+        } else if (GROUP_BREED.equals(group)) {
+            return code == 0 ? null : mBreeds.value(code - 1);
+        }
+        return mNames.value(code);
+    }
+
+    // the group codes in the order sqlite groups their values
+    // dictionaries number values in the order they were first seen, so only their codes are sorted here
+    private Integer[] groupOrder(String group, int groups) {
+
+        Integer[] order = new Integer[groups];
+        for (int code = 0; code < groups; code++) {
+            order[code] = code;
+        }
+
+        if (GROUP_BREED.equals(group) || GROUP_NAME.equals(group)) {
+            final Dictionary dictionary = GROUP_BREED.equals(group) ? mBreeds : mNames;
+            final int offset = GROUP_BREED.equals(group) ? 1 : 0;
+            Arrays.sort(order, offset, groups, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return dictionary.value(a - offset).compareTo(dictionary.value(b - offset));
+                }
+            });
+        }
+        return order;
+    }
+
+    // bring the columns up to date with every write whose invalidation came before this call
+    private void refresh() {
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // writes run on the primary connection and keep it for their whole transaction, so once this thread
+        // holds it every write that invalidated a pet so far has committed and the rows read below include it
+        Set<Long> dirtyIds;
+        boolean allDirty;
+        database.beginTransactionNonExclusive();
+        try {
+            synchronized (mDirtyLock) {
+                dirtyIds = mDirtyIds;
+                allDirty = mAllDirty;
+                mDirtyIds = new HashSet<Long>();
+                mAllDirty = false;
+            }
+        } finally {
+            database.endTransaction();
+        }
+
+        try {
+            if (allDirty) {
+                build(database);
+            } else if (!dirtyIds.isEmpty()) {
+                apply(database, dirtyIds);
+            }
+        } catch (RuntimeException e) {
+
+            // the pets taken from the dirty set were not read, so the next refresh reads every pet
+            invalidateAll();
+            throw e;
+        }
+    }
+
+    // read every pet that is not deleted into new columns and dictionaries
+    private void build(SQLiteDatabase database) {
+
+        Cursor cursor = database.rawQuery("SELECT " + COLUMNS + " FROM " + PetEntry.TABLE_NAME + " WHERE " +
+                PetDbHelper.NOT_DELETED + " ORDER BY " + PetEntry._ID, null);
+        try {
+            mBreeds = new Dictionary();
+            mNames = new Dictionary();
+            mColumns = new Columns(cursor.getCount());
+            while (cursor.moveToNext()) {
+                mColumns.read(mColumns.size++, cursor, mBreeds, mNames);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // read the given pets again and put them into the columns, dropping the ones that are deleted or gone
+    private void apply(SQLiteDatabase database, Set<Long> dirtyIds) {
+
+        long[] ids = new long[dirtyIds.size()];
+        int n = 0;
+        for (long id : dirtyIds) {
+            ids[n++] = id;
+        }
+        Arrays.sort(ids);
+
+        // the current rows of the dirty pets that still exist, in _ID order
+        Columns changed = new Columns(ids.length);
+        for (int start = 0; start < ids.length; start += FETCH_CHUNK_SIZE) {
+            fetch(database, ids, start, Math.min(ids.length, start + FETCH_CHUNK_SIZE), changed);
+        }
+
+        Columns columns = mColumns;
+
+        // the usual write updates pets in place or adds pets after the last one, which needs no copying
+        boolean inPlace = changed.size == ids.length;
+        long lastId = columns.size == 0 ? Long.MIN_VALUE : columns.ids[columns.size - 1];
+        for (int i = 0; i < changed.size && inPlace; i++) {
+            inPlace = changed.ids[i] > lastId || columns.indexOf(changed.ids[i], 0) >= 0;
+        }
+
+        if (inPlace) {
+            columns.grow(columns.size + changed.size);
+            for (int i = 0; i < changed.size; i++) {
+                int row = columns.indexOf(changed.ids[i], 0);
+                Columns.copy(changed, i, columns, row >= 0 ? row : columns.size++, 1);
+            }
+            return;
+        }
+
+        // otherwise the old rows and the changed ones are merged into new columns in one pass
+        Columns merged = new Columns(columns.size + changed.size);
+        int old = 0;
+        int next = 0;
+        for (long id : ids) {
+
+            // the rows before the dirty pet are kept as they are
+            int end = columns.indexOf(id, old);
+            int keep = (end >= 0 ? end : -end - 1) - old;
+            Columns.copy(columns, old, merged, merged.size, keep);
+            merged.size += keep;
+            old += keep;
+
+            // the old row of the dirty pet is replaced by its new one, if it still has one
+            if (old < columns.size && columns.ids[old] == id) {
+                old++;
+            }
+            if (next < changed.size && changed.ids[next] == id) {
+                Columns.copy(changed, next++, merged, merged.size++, 1);
+            }
+        }
+        Columns.copy(columns, old, merged, merged.size, columns.size - old);
+        merged.size += columns.size - old;
+
+        mColumns = merged;
+    }
+
+    // append the pets that are not deleted among the _IDs from start to end to the columns
+    private void fetch(SQLiteDatabase database, long[] ids, int start, int end, Columns columns) {
+
+        StringBuilder sql = new StringBuilder("SELECT ").append(COLUMNS).append(" FROM ")
+                .append(PetEntry.TABLE_NAME).append(" WHERE ").append(PetDbHelper.NOT_DELETED)
+                .append(" AND ").append(PetEntry._ID).append(" IN (");
+
+        String[] args = new String[end - start];
+        for (int i = start; i < end; i++) {
+            sql.append(i > start ? ",?" : "?");
+            args[i - start] = String.valueOf(ids[i]);
+        }
+        sql.append(") ORDER BY ").append(PetEntry._ID);
+
+        Cursor cursor = database.rawQuery(sql.toString(), args);
+        try {
+            while (cursor.moveToNext()) {
+                columns.read(columns.size++, cursor, mBreeds, mNames);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // rows of pets as one primitive array per column, rows 0 to size - 1 are in use
+    private static final class Columns {
+
+        int size;
+        long[] ids;
+        int[] genders;
+        int[] weights;
+        int[] breeds;
+        int[] names;
+
+        Columns(int capacity) {
+            ids = new long[capacity];
+            genders = new int[capacity];
+            weights = new int[capacity];
+            breeds = new int[capacity];
+            names = new int[capacity];
+        }
+
+        // row of the given _ID at or after the given row, or -(insertion point) - 1 if it is not there
+        int indexOf(long id, int from) {
+            return Arrays.binarySearch(ids, from, size, id);
+        }
+
+        // fill a row from the current row of a cursor over COLUMNS
+        void read(int row, Cursor cursor, Dictionary breedDictionary, Dictionary nameDictionary) {
+            ids[row] = cursor.getLong(0);
+            genders[row] = cursor.getInt(1);
+            weights[row] = cursor.getInt(2);
+            breeds[row] = cursor.isNull(3) ? NO_BREED : breedDictionary.code(cursor.getString(3));
+            names[row] = nameDictionary.code(cursor.getString(4));
+        }
+
+        // make room for the given number of rows, growing by half so appends stay cheap
+        void grow(int rows) {
+            if (rows <= ids.length) {
+                return;
+            }
+            int capacity = Math.max(rows, ids.length + (ids.length >> 1));
+            ids = Arrays.copyOf(ids, capacity);
+            genders = Arrays.copyOf(genders, capacity);
+            weights = Arrays.copyOf(weights, capacity);
+            breeds = Arrays.copyOf(breeds, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+
+        static void copy(Columns from, int fromRow, Columns to, int toRow, int rows) {
+            System.arraycopy(from.ids, fromRow, to.ids, toRow, rows);
+            System.arraycopy(from.genders, fromRow, to.genders, toRow, rows);
+            System.arraycopy(from.weights, fromRow, to.weights, toRow, rows);
+            System.arraycopy(from.breeds, fromRow, to.breeds, toRow, rows);
+            System.arraycopy(from.names, fromRow, to.names, toRow, rows);
+        }
+    }
+
+    // distinct strings numbered in the order they were first seen
+    private static final class Dictionary {
+
+        private final List<String> mValues = new ArrayList<String>();
+        private final Map<String, Integer> mCodes = new HashMap<String, Integer>();
+
+        int code(String value) {
+            Integer code = mCodes.get(value);
+            if (code == null) {
+                code = mValues.size();
+                mValues.add(value);
+                mCodes.put(value, code);
+            }
+            return code;
+        }
+
+        String value(int code) {
+            return mValues.get(code);
+        }
+
+        int size() {
+            return mValues.size();
+        }
+    }
+
+}
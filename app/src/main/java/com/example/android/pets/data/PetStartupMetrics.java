@@ -0,0 +1,91 @@
+package com.example.android.pets.data;
+
+import android.database.MatrixCursor;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// process-wide timings of a cold start, from the start of the process to the first page of the catalog
+// on screen, each phase is recorded the first time it finishes in the process and later ones are ignored
+// reported in the provider's metrics and dump, and logged once the catalog is drawn
+public final class PetStartupMetrics {
+
+    // tag for log messages
+    private static final String LOG_TAG = PetStartupMetrics.class.getSimpleName();
+
+    // phases, in the order they normally finish
+    static final int PROVIDER_CREATED = 0;
+    static final int DATABASE_OPENED = 1;
+    static final int CATALOG_PREFETCHED = 2;
+    static final int CATALOG_DRAWN = 3;
+
+    private static final String[] PHASE_NAMES =
+            {"providerCreated", "databaseOpened", "catalogPrefetched", "catalogDrawn"};
+
+    // shared by everything in the process
+    private static final PetStartupMetrics sInstance = new PetStartupMetrics();
+
+    // uptime at the start of the process, the provider is created before any other code of the app runs,
+    // so before N, where the process start time is unknown, the first use of this class stands in for it
+    private final long mStartUptimeMillis = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ?
+            Process.getStartUptimeMillis() : SystemClock.uptimeMillis();
+
+    // milliseconds from the start of the process to the end of each phase, -1 until it ends
+    private final AtomicLongArray mPhaseMillis = new AtomicLongArray(PHASE_NAMES.length);
+
+    private PetStartupMetrics() {
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            mPhaseMillis.set(i, -1);
+        }
+    }
+
+    // the timings of this process
+    public static PetStartupMetrics getInstance() {
+        return sInstance;
+    }
+
+    // the rows of the first catalog page were drawn, or the empty view if there are no pets,
+    // called by the catalog on the main thread
+    public void catalogDrawn() {
+        if (phaseEnded(CATALOG_DRAWN)) {
+            Log.i(LOG_TAG, "Time to first catalog page: " + mPhaseMillis.get(CATALOG_DRAWN) + " ms, " + this);
+        }
+    }
+
+    // milliseconds from the start of the process to the first catalog page on screen, -1 if not drawn yet
+    public long timeToCatalogMillis() {
+        return mPhaseMillis.get(CATALOG_DRAWN);
+    }
+
+    // record the end of a phase, returns false if it already ended before
+    boolean phaseEnded(int phase) {
+        return mPhaseMillis.compareAndSet(phase, -1, SystemClock.uptimeMillis() - mStartUptimeMillis);
+    }
+
+    // one row per phase that ended, in the columns of PetMetrics.toCursor with the time in mean_us and max_us
+    void addTo(MatrixCursor cursor) {
+        for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+            long millis = mPhaseMillis.get(phase);
+            if (millis >= 0) {
+                cursor.addRow(new Object[] {"startup", PHASE_NAMES[phase], 1, null, millis * 1000, null, null, null,
+                        millis * 1000});
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("PetStartupMetrics{");
+        for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+            if (phase > 0) {
+                text.append(", ");
+            }
+            text.append(PHASE_NAMES[phase]).append('=').append(mPhaseMillis.get(phase)).append("ms");
+        }
+        return text.append('}').toString();
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// compiled statements for the provider's write paths, keyed by operation and column set
+// repeated writes of the same shape skip building SQL from ContentValues and compiling it again
+// each binder thread keeps its own statements, since a statement holds its bound arguments and
+// sharing one would need a lock that could deadlock against the database's own transaction lock
+class PetStatementCache {
+
+    // operations with a statement shape fixed by their column set
+    static final int INSERT = 0;
+    static final int UPDATE_BY_ID = 1;
+    static final int DELETE_BY_ID = 2;
+    static final int UPDATE_BY_ID_AND_VERSION = 3;
+
+    // statements kept per thread, the least recently used one is closed beyond this
+    private static final int MAX_STATEMENTS_PER_THREAD = 16;
+
+    // columns a write may name, anything else would be concatenated into SQL
+    private static final Set<String> WRITABLE_COLUMNS = new HashSet<String>(Arrays.asList(
+            PetEntry.COLUMN_PETS_NAME, PetEntry.COLUMN_PETS_BREED,
+            PetEntry.COLUMN_PETS_GENDER, PetEntry.COLUMN_PETS_WEIGHT));
+
+    // statements are compiled against the writable database of this helper
+    private final SQLiteOpenHelper mDbHelper;
+
+    // every per-thread map, so close can reach statements compiled on any thread
+    private final List<Map<String, SQLiteStatement>> mAllStatements =
+            new ArrayList<Map<String, SQLiteStatement>>();
+
+    // statements of the calling thread, in access order for eviction
+    private final ThreadLocal<Map<String, SQLiteStatement>> mStatements =
+            new ThreadLocal<Map<String, SQLiteStatement>>() {
+                @Override
+                protected Map<String, SQLiteStatement> initialValue() {
+
+                    Map<String, SQLiteStatement> statements =
+                            new LinkedHashMap<String, SQLiteStatement>(16, 0.75f, true) {
+                                @Override
+                                protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                                    if (size() > MAX_STATEMENTS_PER_THREAD) {
+                                        eldest.getValue().close();
+                                        return true;
+                                    }
+                                    return false;
+                                }
+                            };
+
+                    synchronized (mAllStatements) {
+                        mAllStatements.add(statements);
+                    }
+                    return statements;
+                }
+            };
+
+    PetStatementCache(SQLiteOpenHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    // statement for the operation on the given columns, compiled on first use by the calling thread
+    // columns must come from columnsOf, the statement must only be used on the calling thread
+    SQLiteStatement get(int operation, String[] columns) {
+
+        Map<String, SQLiteStatement> statements = mStatements.get();
+
+        // the key only has to tell shapes apart, the SQL itself is built on a miss
+        String key = operation + ":" + TextUtils.join(",", columns);
+
+        SQLiteStatement statement = statements.get(key);
+        if (statement == null) {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            statement = database.compileStatement(buildSql(operation, columns));
+            statements.put(key, statement);
+        }
+
+        // arguments from the previous use must not leak into this one
+        statement.clearBindings();
+        return statement;
+    }
+
+    // bind the values of the given columns to the first arguments of the statement, in column order
+    static void bindValues(SQLiteStatement statement, String[] columns, ContentValues values) {
+        for (int i = 0; i < columns.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(columns[i]));
+        }
+    }
+
+    // the columns named by the content values in a fixed order, so equal column sets share a statement
+    static String[] columnsOf(ContentValues values) {
+
+        String[] columns = values.keySet().toArray(new String[values.size()]);
+
+        for (String column : columns) {
+            if (!WRITABLE_COLUMNS.contains(column)) {
+                throw new IllegalArgumentException("Unknown column: " + column);
+            }
+        }
+
+        Arrays.sort(columns);
+        return columns;
+    }
+
+    // close every cached statement, called when the provider shuts down
+    void close() {
+        synchronized (mAllStatements) {
+            for (Map<String, SQLiteStatement> statements : mAllStatements) {
+                for (SQLiteStatement statement : statements.values()) {
+                    statement.close();
+                }
+                statements.clear();
+            }
+            mAllStatements.clear();
+        }
+    }
+
+    // SQL for the operation, the column values come first and the _id last
+    private static String buildSql(int operation, String[] columns) {
+
+        StringBuilder sql = new StringBuilder();
+
+        switch (operation) {
+
+            // INSERT INTO pets (a, b) VALUES (?, ?)
+            case INSERT:
+                sql.append("INSERT INTO ").append(PetEntry.TABLE_NAME).append(" (");
+                for (int i = 0; i < columns.length; i++) {
+                    sql.append(i == 0 ? "" : ", ").append(columns[i]);
+                }
+                sql.append(") VALUES (");
+                for (int i = 0; i < columns.length; i++) {
+                    sql.append(i == 0 ? "?" : ", ?");
+                }
+                return sql.append(")").toString();
+
+            // UPDATE pets SET a = ?, b = ? WHERE _id = ? AND deleted = 0
+            case UPDATE_BY_ID:
+                sql.append("UPDATE ").append(PetEntry.TABLE_NAME).append(" SET ");
+                for (int i = 0; i < columns.length; i++) {
+                    sql.append(i == 0 ? "" : ", ").append(columns[i]).append(" = ?");
+                }
+                return sql.append(" WHERE ").append(PetEntry._ID).append(" = ? AND ")
+                        .append(PetDbHelper.NOT_DELETED).toString();
+
+            // UPDATE pets SET a = ?, b = ? WHERE _id = ? AND deleted = 0 AND version = ?
+            case UPDATE_BY_ID_AND_VERSION:
+                sql.append("UPDATE ").append(PetEntry.TABLE_NAME).append(" SET ");
+                for (int i = 0; i < columns.length; i++) {
+                    sql.append(i == 0 ? "" : ", ").append(columns[i]).append(" = ?");
+                }
+                return sql.append(" WHERE ").append(PetEntry._ID).append(" = ? AND ")
+                        .append(PetDbHelper.NOT_DELETED).append(" AND ")
+                        .append(PetEntry.COLUMN_PETS_VERSION).append(" = ?").toString();
+
+            // a soft delete, the row is purged later by PetCompactor
+            // UPDATE pets SET deleted = 1 WHERE _id = ? AND deleted = 0
+            case DELETE_BY_ID:
+                return sql.append("UPDATE ").append(PetEntry.TABLE_NAME).append(" SET ")
+                        .append(PetDbHelper.COLUMN_DELETED).append(" = 1 WHERE ").append(PetEntry._ID)
+                        .append(" = ? AND ").append(PetDbHelper.NOT_DELETED).toString();
+
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+    }
+
+}
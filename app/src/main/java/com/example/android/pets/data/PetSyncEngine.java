@@ -0,0 +1,270 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// keeps the pets of this device in step with a PetSyncServer, in batches
+// remote deltas are pulled first and applied one page per transaction, then the local change log is pushed
+// one page at a time and trimmed behind it, so an interrupted sync repeats at most one page, which is harmless
+// since every delta carries the whole state of its pet
+// pets are matched across devices by their uuid, a pulled pet this device does not know gets a _ID of its own
+// each shelter syncs on its own, with its own pull cursor and client id
+// runs on the calling thread, which must not be the main thread
+public class PetSyncEngine {
+
+    // tag for log messages
+    private static final String LOG_TAG = PetSyncEngine.class.getSimpleName();
+
+    // default number of deltas pulled or pushed per round trip
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    // the pull cursor and client id survive the process, other shelters than the default add their id to the name
+    private static final String PREFERENCES_NAME = "pet_sync";
+    private static final String KEY_CLIENT_ID = "client_id";
+    private static final String KEY_PULL_SEQUENCE = "pull_sequence";
+
+    // decides a pulled delta for a pet that also changed here since the last push
+    public interface ConflictResolver {
+
+        // return true to apply the remote delta and drop the local change,
+        // false to skip the remote delta and keep the local change, which the push then sends to the server
+        boolean remoteWins(PetDelta local, PetDelta remote);
+    }
+
+    // the server copy of a pet always replaces a conflicting local change
+    public static final ConflictResolver SERVER_WINS = new ConflictResolver() {
+        @Override
+        public boolean remoteWins(PetDelta local, PetDelta remote) {
+            return true;
+        }
+    };
+
+    // a local change always replaces the conflicting server copy of a pet
+    public static final ConflictResolver LOCAL_WINS = new ConflictResolver() {
+        @Override
+        public boolean remoteWins(PetDelta local, PetDelta remote) {
+            return false;
+        }
+    };
+
+    private final ContentResolver mResolver;
+
+    // pets URI and change log URI of the shelter synced
+    private final Uri mPetsUri;
+    private final Uri mChangesUri;
+
+    private final SharedPreferences mPreferences;
+
+    private final PetSyncServer mServer;
+
+    private final int mBatchSize;
+
+    private final ConflictResolver mConflictResolver;
+
+    // identifies this device in the server log, so its own deltas are not pulled back
+    private final String mClientId;
+
+    // an engine syncing the default shelter
+    public PetSyncEngine(Context context, PetSyncServer server, int batchSize, ConflictResolver conflictResolver) {
+        this(context, ShelterEntry.DEFAULT_SHELTER_ID, server, batchSize, conflictResolver);
+    }
+
+    // an engine syncing the given shelter
+    public PetSyncEngine(Context context, long shelterId, PetSyncServer server, int batchSize,
+                         ConflictResolver conflictResolver) {
+
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+
+        String preferencesName = shelterId == ShelterEntry.DEFAULT_SHELTER_ID ?
+                PREFERENCES_NAME : PREFERENCES_NAME + "_" + shelterId;
+
+        mResolver = context.getApplicationContext().getContentResolver();
+        mPetsUri = ShelterEntry.scope(shelterId, PetEntry.CONTENT_URI);
+        mChangesUri = ShelterEntry.scope(shelterId, PetChangeEntry.CONTENT_URI);
+        mPreferences = context.getApplicationContext().getSharedPreferences(preferencesName, Context.MODE_PRIVATE);
+        mServer = server;
+        mBatchSize = batchSize;
+        mConflictResolver = conflictResolver;
+
+        String clientId = mPreferences.getString(KEY_CLIENT_ID, null);
+        if (clientId == null) {
+            clientId = UUID.randomUUID().toString();
+            mPreferences.edit().putString(KEY_CLIENT_ID, clientId).commit();
+        }
+        mClientId = clientId;
+    }
+
+    // the id this device pushes its deltas under
+    public String getClientId() {
+        return mClientId;
+    }
+
+    // pull every remote delta, then push every local change, adding the counts to the result
+    // a failure leaves the pages done so far committed, and the next sync continues from there
+    public synchronized void sync(SyncResult result)
+            throws IOException, RemoteException, OperationApplicationException {
+        pull(result);
+        push(result);
+    }
+
+    // apply the server log after the pull cursor, one page per transaction
+    private void pull(SyncResult result) throws IOException, RemoteException, OperationApplicationException {
+
+        long afterSequence = mPreferences.getLong(KEY_PULL_SEQUENCE, 0);
+
+        while (true) {
+
+            List<PetDelta> page = mServer.pull(afterSequence, mBatchSize);
+            if (page.isEmpty()) {
+                break;
+            }
+
+            ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+
+            for (PetDelta remote : page) {
+
+                // a delta this device pushed, its change is already here
+                if (mClientId.equals(remote.origin)) {
+                    result.stats.numSkippedEntries++;
+                    continue;
+                }
+
+                // the pet also changed here and the change has not been pushed yet
+                PetDelta local = queryLocalChange(remote.petUuid);
+                if (local != null) {
+                    result.stats.numConflictDetectedExceptions++;
+                    if (!mConflictResolver.remoteWins(local, remote)) {
+                        continue;
+                    }
+                    operations.add(ContentProviderOperation
+                            .newDelete(scope(PetChangeEntry.buildPetChangesUri(remote.petUuid))).build());
+                }
+
+                operations.add(toOperation(remote));
+                if (remote.isDelete()) {
+                    result.stats.numDeletes++;
+                } else {
+                    result.stats.numUpdates++;
+                }
+            }
+
+            // the page is applied before the cursor moves past it, a crash in between applies it again
+            if (!operations.isEmpty()) {
+                mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+            }
+
+            afterSequence = page.get(page.size() - 1).sequence;
+            mPreferences.edit().putLong(KEY_PULL_SEQUENCE, afterSequence).commit();
+
+            if (page.size() < mBatchSize) {
+                break;
+            }
+        }
+    }
+
+    // send the change log to the server, one page per round trip, trimming each page once the server has it
+    private void push(SyncResult result) throws IOException {
+
+        while (true) {
+
+            // the log is trimmed behind every page, so the next page always starts at its beginning
+            List<PetDelta> page = new ArrayList<PetDelta>(mBatchSize);
+            Cursor cursor = mResolver.query(scope(PetChangeEntry.buildChangesUri(0, mBatchSize)), null, null, null,
+                    null);
+            if (cursor == null) {
+                break;
+            }
+            try {
+                while (cursor.moveToNext()) {
+                    page.add(readChange(cursor));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            if (page.isEmpty()) {
+                break;
+            }
+
+            mServer.push(mClientId, page);
+            result.stats.numEntries += page.size();
+
+            // changes logged after the page was read have later sequence numbers and stay for the next push
+            // a crash before this trim pushes the page again
+            mResolver.delete(scope(PetChangeEntry.buildTrimUri(page.get(page.size() - 1).sequence)), null, null);
+
+            if (page.size() < mBatchSize) {
+                break;
+            }
+        }
+
+        Log.i(LOG_TAG, "Sync done: " + result.stats);
+    }
+
+    // the change of the pet with the given uuid not pushed yet, or null if there is none
+    private PetDelta queryLocalChange(String petUuid) {
+
+        Cursor cursor = mResolver.query(scope(PetChangeEntry.buildPetChangesUri(petUuid)), null, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? readChange(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // the delta of the change log row at the current position of the cursor
+    private PetDelta readChange(Cursor cursor) {
+
+        long sequence = cursor.getLong(cursor.getColumnIndexOrThrow(PetChangeEntry.COLUMN_SEQUENCE));
+        String petUuid = cursor.getString(cursor.getColumnIndexOrThrow(PetChangeEntry.COLUMN_PET_UUID));
+        boolean deleted = cursor.getInt(cursor.getColumnIndexOrThrow(PetChangeEntry.COLUMN_DELETED)) != 0;
+
+        Pet pet = deleted ? null : new PetMapper(cursor).read(cursor);
+        return new PetDelta(sequence, petUuid, pet, mClientId);
+    }
+
+    // the given change log URI of the default shelter for the shelter synced
+    private Uri scope(Uri changesUri) {
+        return mChangesUri.buildUpon().encodedQuery(changesUri.getEncodedQuery()).build();
+    }
+
+    // the provider operation that applies a remote delta without logging it as a local change
+    // the _ID of the pet on the device it came from is never used here, the pet is found by its uuid
+    private ContentProviderOperation toOperation(PetDelta delta) {
+
+        if (delta.isDelete()) {
+            return ContentProviderOperation.newDelete(PetChangeEntry.asSyncAdapter(mPetsUri))
+                    .withSelection(PetEntry.COLUMN_PETS_UUID + "=?", new String[] {delta.petUuid}).build();
+        }
+
+        // an insert with a uuid replaces the pet if this device already has it
+        ContentValues values = PetMapper.toContentValues(delta.pet);
+        values.put(PetEntry.COLUMN_PETS_UUID, delta.petUuid);
+        return ContentProviderOperation.newInsert(PetChangeEntry.asSyncAdapter(mPetsUri))
+                .withValues(values).build();
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.example.android.pets.data;
+
+import java.io.IOException;
+import java.util.List;
+
+// the shelter system pets are synced with, as seen by PetSyncEngine
+// the server keeps a single log of every delta pushed to it, numbered by a sequence that only grows,
+// and clients page through that log with the last sequence number they have seen
+public interface PetSyncServer {
+
+    // append the deltas, in order, to the server log under the given client id
+    // either every delta is appended or, if this throws, none of them is
+    void push(String clientId, List<PetDelta> deltas) throws IOException;
+
+    // at most limit deltas of the server log with a sequence number after the given one, in sequence order,
+    // including those pushed by the calling client, an empty list once the client has caught up
+    List<PetDelta> pull(long afterSequence, int limit) throws IOException;
+
+}
@@ -0,0 +1,359 @@
+package com.example.android.pets.data;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.example.android.pets.R;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// process-wide cache of square pet photo thumbnails for the catalog
+// a thumbnail comes from a bounded memory cache, else from a bounded disk cache, and only else from the photo,
+// which is decoded downsampled so the full size image is never in memory
+// files are only touched and images only decoded on a single background thread, the main thread only ever
+// looks into the memory cache
+public final class PetThumbnailCache {
+
+    // tag for log messages
+    private static final String LOG_TAG = PetThumbnailCache.class.getSimpleName();
+
+    // receives a thumbnail on the main thread, null if the pet has no photo
+    public interface Callback {
+        void onThumbnailLoaded(long id, Bitmap thumbnail);
+    }
+
+    // decoded thumbnails may take this share of the memory class of the app
+    private static final int MEMORY_CACHE_FRACTION = 8;
+
+    // pets remembered as having no photo, so binding them again does not queue a file check
+    private static final int MAX_NO_PHOTO_ENTRIES = 1024;
+
+    // thumbnail files kept on disk, the least recently written are deleted beyond this
+    // and the cache is trimmed to three quarters of it so trimming does not happen on every write
+    private static final long MAX_DISK_BYTES = 8 * 1024 * 1024;
+
+    // directory of the thumbnail files, below the cache directory so the system may clear it
+    private static final String DIRECTORY_NAME = "pet_thumbnails";
+
+    // thumbnails are small, so a lower quality saves disk without being visible
+    private static final int JPEG_QUALITY = 85;
+
+    // created on first use, guarded by the class
+    private static PetThumbnailCache sInstance;
+
+    private final Context mContext;
+
+    // width and height of a thumbnail in pixels
+    private final int mSize;
+
+    private final File mDirectory;
+
+    // decoded thumbnails, sized in kilobytes
+    private final LruCache<Long, Bitmap> mThumbnails;
+
+    // pets known to have no photo
+    private final LruCache<Long, Boolean> mNoPhoto = new LruCache<Long, Boolean>(MAX_NO_PHOTO_ENTRIES);
+
+    // callbacks waiting for each pet being loaded, so a pet bound again before its thumbnail is ready
+    // is only loaded once, only touched on the main thread
+    private final Map<Long, List<Callback>> mPending = new HashMap<Long, List<Callback>>();
+
+    // one thread for every file access and decode, which bounds the memory taken by decoding
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // incremented by every invalidation, guarded by this
+    // a load only caches its result if no invalidation happened since it was queued
+    private long mGeneration;
+
+    // bytes of thumbnail files on disk, -1 until first measured, only touched on the executor thread
+    private long mDiskBytes = -1;
+
+    private PetThumbnailCache(Context context) {
+
+        mContext = context.getApplicationContext();
+        mSize = mContext.getResources().getDimensionPixelSize(R.dimen.pet_thumbnail_size);
+        mDirectory = new File(mContext.getCacheDir(), DIRECTORY_NAME);
+
+        ActivityManager activityManager = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxKilobytes = activityManager.getMemoryClass() * 1024 / MEMORY_CACHE_FRACTION;
+
+        mThumbnails = new LruCache<Long, Bitmap>(maxKilobytes) {
+            @Override
+            protected int sizeOf(Long id, Bitmap thumbnail) {
+                return thumbnail.getByteCount() / 1024 + 1;
+            }
+        };
+    }
+
+    // the cache shared by the process
+    public static synchronized PetThumbnailCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetThumbnailCache(context);
+        }
+        return sInstance;
+    }
+
+    // deliver the thumbnail of the given pet to the callback, called on the main thread
+    // a thumbnail in memory is delivered before this returns, anything else is loaded in the background
+    public void load(long id, Callback callback) {
+
+        Bitmap thumbnail = mThumbnails.get(id);
+        if (thumbnail != null || mNoPhoto.get(id) != null) {
+            callback.onThumbnailLoaded(id, thumbnail);
+            return;
+        }
+
+        // already on its way for an earlier bind
+        List<Callback> waiting = mPending.get(id);
+        if (waiting != null) {
+            waiting.add(callback);
+            return;
+        }
+
+        waiting = new ArrayList<Callback>(1);
+        waiting.add(callback);
+        mPending.put(id, waiting);
+
+        mExecutor.execute(new LoadRunnable(id, generation()));
+    }
+
+    // drop the thumbnail of the given pet after its photo was replaced or removed
+    // the thumbnail file is deleted on the background thread, after any load that was queued before
+    void invalidate(final long id) {
+
+        synchronized (this) {
+            mGeneration++;
+            mThumbnails.remove(id);
+            mNoPhoto.remove(id);
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File file = thumbnailFile(id);
+                long length = file.length();
+                if (file.delete() && mDiskBytes >= 0) {
+                    mDiskBytes -= length;
+                }
+            }
+        });
+    }
+
+    private synchronized long generation() {
+        return mGeneration;
+    }
+
+    // remember a loaded thumbnail, unless the pet was invalidated since the load was queued
+    private synchronized void cache(long id, Bitmap thumbnail, long generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        if (thumbnail == null) {
+            mNoPhoto.put(id, Boolean.TRUE);
+        } else {
+            mThumbnails.put(id, thumbnail);
+        }
+    }
+
+    // loads one thumbnail in the background and hands it to the waiting callbacks on the main thread
+    private class LoadRunnable implements Runnable {
+
+        private final long mId;
+        private final long mLoadGeneration;
+
+        LoadRunnable(long id, long generation) {
+            mId = id;
+            mLoadGeneration = generation;
+        }
+
+        @Override
+        public void run() {
+
+            Bitmap loaded = null;
+            try {
+                loaded = loadThumbnail(mId);
+            } catch (OutOfMemoryError e) {
+                // a huge photo, the row goes without a thumbnail rather than taking the app down
+                Log.e(LOG_TAG, "Out of memory decoding photo of pet " + mId, e);
+            }
+
+            cache(mId, loaded, mLoadGeneration);
+
+            final Bitmap thumbnail = loaded;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    List<Callback> callbacks = mPending.remove(mId);
+                    if (callbacks != null) {
+                        for (Callback callback : callbacks) {
+                            callback.onThumbnailLoaded(mId, thumbnail);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    // thumbnail of the given pet from disk, or made from its photo, null if it has none
+    private Bitmap loadThumbnail(long id) {
+
+        File photo = PetPhotos.file(mContext, id);
+        long photoModified = photo.lastModified();
+
+        // lastModified is 0 for a missing file
+        if (photoModified == 0) {
+            return null;
+        }
+
+        // a thumbnail written since the photo was last replaced is current
+        File file = thumbnailFile(id);
+        if (file.lastModified() >= photoModified) {
+            Bitmap thumbnail = BitmapFactory.decodeFile(file.getPath());
+            if (thumbnail != null) {
+                return thumbnail;
+            }
+        }
+
+        Bitmap thumbnail = decodeThumbnail(photo);
+        if (thumbnail != null) {
+            writeThumbnail(file, thumbnail);
+        }
+        return thumbnail;
+    }
+
+    // decode the photo downsampled to about the thumbnail size and crop the middle square of it
+    private Bitmap decodeThumbnail(File photo) {
+
+        // read only the dimensions first
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(photo.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.w(LOG_TAG, "Not an image: " + photo);
+            return null;
+        }
+
+        // the decoder skips pixels by the largest power of two that keeps both sides at least the thumbnail size
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= mSize && options.outHeight / (sampleSize * 2) >= mSize) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap sampled = BitmapFactory.decodeFile(photo.getPath(), options);
+        if (sampled == null) {
+            return null;
+        }
+
+        return ThumbnailUtils.extractThumbnail(sampled, mSize, mSize, ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+    }
+
+    // write a thumbnail to the disk cache, through a temporary file so a reader never sees half of it
+    private void writeThumbnail(File file, Bitmap thumbnail) {
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return;
+        }
+
+        if (mDiskBytes < 0) {
+            mDiskBytes = 0;
+            File[] files = mDirectory.listFiles();
+            if (files != null) {
+                for (File existing : files) {
+                    mDiskBytes += existing.length();
+                }
+            }
+        }
+
+        File temporary = new File(mDirectory, file.getName() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(temporary));
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            out.close();
+            out = null;
+
+            long replaced = file.length();
+            if (temporary.renameTo(file)) {
+                mDiskBytes += file.length() - replaced;
+            }
+        } catch (IOException e) {
+            // the thumbnail is still cached in memory, it is written again next time
+            Log.w(LOG_TAG, "Cannot write thumbnail " + file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // nothing left to do with it
+                }
+            }
+            temporary.delete();
+        }
+
+        if (mDiskBytes > MAX_DISK_BYTES) {
+            trimDisk();
+        }
+    }
+
+    // delete the least recently written thumbnails until the disk cache is at three quarters of its limit
+    private void trimDisk() {
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+
+        for (File file : files) {
+            if (mDiskBytes <= MAX_DISK_BYTES * 3 / 4) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                mDiskBytes -= length;
+            }
+        }
+    }
+
+    // thumbnail file of the given pet, which may not exist
+    private File thumbnailFile(long id) {
+        return new File(mDirectory, id + ".jpg");
+    }
+
+    @Override
+    public String toString() {
+        return "PetThumbnailCache{size=" + mThumbnails.size() + "kB, hits=" + mThumbnails.hitCount() +
+                ", misses=" + mThumbnails.missCount() + ", evictions=" + mThumbnails.evictionCount() + "}";
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.example.android.pets.data;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+// formats and callbacks shared by PetImporter and PetExporter
+// "final" modifier because class only contains constants and interfaces
+public final class PetTransfer {
+
+    // empty constructor as no objects of this class will ever be created
+    private PetTransfer() {}
+
+    // comma separated values with a header row, quoted as in RFC 4180
+    public static final int FORMAT_CSV = 0;
+
+    // one JSON object per line, which keeps memory bounded and lets an interrupted export be appended to
+    public static final int FORMAT_JSON_LINES = 1;
+
+    // columns written by the exporter, in this order
+    // the importer reads columns by name and ignores _id, since imported pets get new ids
+    static final String[] COLUMNS = {PetEntry._ID, PetEntry.COLUMN_PETS_NAME, PetEntry.COLUMN_PETS_BREED,
+            PetEntry.COLUMN_PETS_GENDER, PetEntry.COLUMN_PETS_WEIGHT};
+
+    // default number of pets written per transaction on import, or read per page on export
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    // returns true if the format is one of the FORMAT_ constants
+    static boolean isValidFormat(int format) {
+        return format == FORMAT_CSV || format == FORMAT_JSON_LINES;
+    }
+
+    // reports import progress after each committed batch
+    public interface ImportListener {
+
+        // recordsCommitted counts from the start of the input, including records skipped on resume
+        // pass it as skipRecords to resume after a failure
+        void onBatchCommitted(long recordsCommitted);
+    }
+
+    // reports export progress after each page written
+    public interface ExportListener {
+
+        // lastId is the _ID of the last pet written
+        // pass it as afterId, with the output opened for appending, to resume after a failure
+        void onPageWritten(long rowsWritten, long lastId);
+    }
+
+}
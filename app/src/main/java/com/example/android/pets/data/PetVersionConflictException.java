@@ -0,0 +1,24 @@
+package com.example.android.pets.data;
+
+// thrown by an update of a single pet when the pet no longer has the version the writer expected,
+// see PetEntry.buildVersionedUri
+// the pet is left unchanged, the writer should reload it and decide whether to apply its change again
+public class PetVersionConflictException extends IllegalStateException {
+
+    // _ID of the pet
+    public final long id;
+
+    // version the writer loaded
+    public final long expectedVersion;
+
+    // version the pet has now
+    public final long actualVersion;
+
+    public PetVersionConflictException(long id, long expectedVersion, long actualVersion) {
+        super("Pet " + id + " has version " + actualVersion + ", expected " + expectedVersion);
+        this.id = id;
+        this.expectedVersion = expectedVersion;
+        this.actualVersion = actualVersion;
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+// gets the default shelter ready on a background thread as soon as the provider is created,
+// so the catalog's first query finds the database open and its first page in memory
+// opening runs the schema check and any migration, and the first query for the catalog reads the pages
+// of its first page from disk and compiles its statement, none of which then lands on the loader
+// a query arriving while this runs waits for the open in SQLiteOpenHelper instead of opening a second time
+final class PetWarmUp implements Runnable {
+
+    // tag for log messages
+    private static final String LOG_TAG = PetWarmUp.class.getSimpleName();
+
+    private final PetShardPool mShards;
+
+    private PetWarmUp(PetShardPool shards) {
+        mShards = shards;
+    }
+
+    // warm up the default shelter of the pool on a thread of its own
+    static void start(PetShardPool shards) {
+        new Thread(new PetWarmUp(shards), LOG_TAG).start();
+    }
+
+    @Override
+    public void run() {
+
+        PetStartupMetrics startup = PetStartupMetrics.getInstance();
+        try {
+
+            // creates the shard, its caches and compactor, then opens, creates or upgrades its database
+            SQLiteDatabase database = mShards.getDefault().dbHelper.getWritableDatabase();
+            startup.phaseEnded(PetStartupMetrics.DATABASE_OPENED);
+
+            // the same statement as the provider builds for PetEntry.buildPageUri(0, CATALOG_PAGE_SIZE),
+            // so a connection that runs both compiles it once
+            Cursor cursor = database.query(PetEntry.TABLE_NAME, PetEntry.CATALOG_PROJECTION,
+                    "(" + PetDbHelper.NOT_DELETED + ") AND (" + PetEntry._ID + ">?)", new String[] {"0"}, null, null,
+                    PetEntry._ID + " ASC", String.valueOf(PetEntry.CATALOG_PAGE_SIZE));
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            startup.phaseEnded(PetStartupMetrics.CATALOG_PREFETCHED);
+
+        } catch (SQLException e) {
+            // nothing is lost, the first query opens the database itself and reports the error to its caller
+            Log.w(LOG_TAG, "Warm-up failed", e);
+        }
+    }
+
+}
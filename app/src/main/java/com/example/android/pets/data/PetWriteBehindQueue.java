@@ -0,0 +1,352 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// write-behind queue for frequent updates of single pets, such as weights streaming in from a scale
+// updates of a pet that is still queued are merged into one, later values winning, and queued pets are
+// written in batches through applyBatch, so each batch is one transaction and one change notification
+// a batch is written once it reaches the batch size or once its oldest update waited for the delay
+// the queue holds at most a fixed number of pets, a caller adding another pet waits for room
+// an update is as durable as any other provider write once its callback runs or flush returns,
+// until then it only lives in memory and is lost if the process dies
+public final class PetWriteBehindQueue {
+
+    // tag for log messages
+    private static final String LOG_TAG = PetWriteBehindQueue.class.getSimpleName();
+
+    // default number of distinct pets waiting to be written before callers have to wait
+    public static final int DEFAULT_MAX_PENDING = 1000;
+
+    // default number of pets written per transaction
+    public static final int DEFAULT_BATCH_SIZE = 200;
+
+    // default time an update waits for others to share its transaction
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 250;
+
+    // results are delivered on the main thread, like those of PetRepository
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    // application content resolver, so the queue never holds on to an activity
+    private final ContentResolver mResolver;
+
+    // pets URI of the shelter written to, single pets are addressed below it
+    private final Uri mPetsUri;
+
+    private final int mMaxPending;
+
+    private final int mBatchSize;
+
+    private final long mMaxDelayMillis;
+
+    // guards every field below, waited on for room, for work and for flushes
+    private final Object mLock = new Object();
+
+    // queued updates by _ID, in the order each pet was first queued
+    private final LinkedHashMap<Long, Pending> mPending = new LinkedHashMap<Long, Pending>();
+
+    // number of updates accepted so far, each update is numbered by it
+    private long mQueuedCount;
+
+    // lowest number of an update in the batch being written, Long.MAX_VALUE while none is
+    private long mWritingFrom = Long.MAX_VALUE;
+
+    // set by flush and close so the pending pets are written without waiting for the batch size or delay
+    private int mFlushesWaiting;
+
+    private boolean mClosed;
+
+    // writes the batches, one at a time
+    private final Thread mThread;
+
+    // merged update of one pet
+    private static final class Pending {
+
+        final long id;
+
+        // number of the first update merged into this one
+        final long firstNumber;
+
+        // uptime when the first update was queued
+        final long queuedAtMillis;
+
+        final ContentValues values = new ContentValues();
+
+        // callbacks of every merged update, none of them null
+        final List<PetRepository.WriteCallback> callbacks = new ArrayList<PetRepository.WriteCallback>(1);
+
+        Pending(long id, long firstNumber, long queuedAtMillis) {
+            this.id = id;
+            this.firstNumber = firstNumber;
+            this.queuedAtMillis = queuedAtMillis;
+        }
+    }
+
+    // a queue for the pets of the default shelter with the default limits
+    public PetWriteBehindQueue(Context context) {
+        this(context, PetEntry.CONTENT_URI, DEFAULT_MAX_PENDING, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    // a queue for the pets under the given pets URI, PetEntry.CONTENT_URI or the one of another shelter
+    public PetWriteBehindQueue(Context context, Uri petsUri, int maxPending, int batchSize, long maxDelayMillis) {
+
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("Pending limit must be positive: " + maxPending);
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        if (maxDelayMillis < 0) {
+            throw new IllegalArgumentException("Delay cannot be negative: " + maxDelayMillis);
+        }
+
+        mResolver = context.getApplicationContext().getContentResolver();
+        mPetsUri = petsUri;
+        mMaxPending = maxPending;
+        mBatchSize = batchSize;
+        mMaxDelayMillis = maxDelayMillis;
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeBatches();
+            }
+        }, LOG_TAG);
+        mThread.start();
+    }
+
+    // queue an update of the pet with the given _ID, waiting while the queue is full
+    // callback may be null, it receives 1 once the update is written, or 0 if the pet is gone or the write failed
+    public void update(long id, ContentValues values, PetRepository.WriteCallback callback)
+            throws InterruptedException {
+        synchronized (mLock) {
+            while (!hasRoomFor(id)) {
+                mLock.wait();
+            }
+            enqueue(id, values, callback);
+        }
+    }
+
+    // queue an update like update, but wait at most the given time for room
+    // returns false, without queueing anything, if the queue stayed full
+    public boolean offer(long id, ContentValues values, PetRepository.WriteCallback callback, long timeout,
+                         TimeUnit unit) throws InterruptedException {
+
+        long deadline = SystemClock.uptimeMillis() + unit.toMillis(timeout);
+        synchronized (mLock) {
+            while (!hasRoomFor(id)) {
+                long remaining = deadline - SystemClock.uptimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                mLock.wait(remaining);
+            }
+            enqueue(id, values, callback);
+            return true;
+        }
+    }
+
+    // write every update queued before this call now and wait until each one is written or failed
+    public void flush() throws InterruptedException {
+        synchronized (mLock) {
+
+            long target = mQueuedCount;
+            mFlushesWaiting++;
+            mLock.notifyAll();
+            try {
+                while (writtenCount() < target) {
+                    mLock.wait();
+                }
+            } finally {
+                mFlushesWaiting--;
+            }
+        }
+    }
+
+    // write the queued updates and stop the queue, no update can be queued afterwards
+    public void close() throws InterruptedException {
+        synchronized (mLock) {
+            mClosed = true;
+            mLock.notifyAll();
+        }
+        mThread.join();
+    }
+
+    // number of distinct pets waiting to be written
+    public int pendingCount() {
+        synchronized (mLock) {
+            return mPending.size();
+        }
+    }
+
+    // true if an update of the pet can be queued now, an update merging into a queued one takes no room
+    // called with mLock held
+    private boolean hasRoomFor(long id) {
+        if (mClosed) {
+            throw new IllegalStateException("Queue is closed");
+        }
+        return mPending.size() < mMaxPending || mPending.containsKey(id);
+    }
+
+    // merge the update into the queued one of the pet, or queue it behind the others
+    // called with mLock held
+    private void enqueue(long id, ContentValues values, PetRepository.WriteCallback callback) {
+
+        Pending pending = mPending.get(id);
+        if (pending == null) {
+            pending = new Pending(id, mQueuedCount + 1, SystemClock.uptimeMillis());
+            mPending.put(id, pending);
+        }
+
+        // the queue keeps its own copy, callers may reuse their values
+        pending.values.putAll(values);
+        if (callback != null) {
+            pending.callbacks.add(callback);
+        }
+
+        mQueuedCount++;
+        mLock.notifyAll();
+    }
+
+    // number of updates such that every update up to it is written or failed
+    // called with mLock held
+    private long writtenCount() {
+
+        long oldest = mWritingFrom;
+        if (!mPending.isEmpty()) {
+            oldest = Math.min(oldest, mPending.values().iterator().next().firstNumber);
+        }
+        return oldest == Long.MAX_VALUE ? mQueuedCount : oldest - 1;
+    }
+
+    // the loop of the queue thread, ends once the queue is closed and empty
+    private void writeBatches() {
+        while (true) {
+
+            List<Pending> batch = new ArrayList<Pending>();
+            synchronized (mLock) {
+                try {
+                    waitForBatch();
+                } catch (InterruptedException e) {
+                    // nobody interrupts this thread, pending updates are written as if the delay had passed
+                }
+
+                if (mPending.isEmpty()) {
+                    return;
+                }
+
+                // the pets queued first are written first
+                Iterator<Pending> iterator = mPending.values().iterator();
+                while (iterator.hasNext() && batch.size() < mBatchSize) {
+                    batch.add(iterator.next());
+                    iterator.remove();
+                }
+                mWritingFrom = batch.get(0).firstNumber;
+
+                // callers waiting for room can go on
+                mLock.notifyAll();
+            }
+
+            write(batch);
+
+            synchronized (mLock) {
+                mWritingFrom = Long.MAX_VALUE;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    // wait until a batch is due, returns with no pending pets only once the queue is closed
+    // called with mLock held
+    private void waitForBatch() throws InterruptedException {
+        while (true) {
+
+            if (mPending.isEmpty()) {
+                if (mClosed) {
+                    return;
+                }
+                mLock.wait();
+                continue;
+            }
+
+            if (mClosed || mFlushesWaiting > 0 || mPending.size() >= mBatchSize) {
+                return;
+            }
+
+            long due = mPending.values().iterator().next().queuedAtMillis + mMaxDelayMillis;
+            long remaining = due - SystemClock.uptimeMillis();
+            if (remaining <= 0) {
+                return;
+            }
+            mLock.wait(remaining);
+        }
+    }
+
+    // write a batch in one transaction, or pet by pet if the transaction fails, so one bad update
+    // such as an invalid weight only fails itself
+    private void write(List<Pending> batch) {
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(batch.size());
+        for (Pending pending : batch) {
+            operations.add(ContentProviderOperation.newUpdate(ContentUris.withAppendedId(mPetsUri, pending.id))
+                    .withValues(pending.values).build());
+        }
+
+        try {
+            ContentProviderResult[] results = mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+            for (int i = 0; i < batch.size(); i++) {
+                deliver(batch.get(i), results[i].count == null ? 0 : results[i].count);
+            }
+            return;
+        } catch (OperationApplicationException e) {
+            Log.w(LOG_TAG, "Batch of " + batch.size() + " updates failed, writing them one by one", e);
+        } catch (RemoteException e) {
+            Log.w(LOG_TAG, "Batch of " + batch.size() + " updates failed, writing them one by one", e);
+        } catch (RuntimeException e) {
+            Log.w(LOG_TAG, "Batch of " + batch.size() + " updates failed, writing them one by one", e);
+        }
+
+        for (Pending pending : batch) {
+            int rowsUpdated = 0;
+            try {
+                rowsUpdated = mResolver.update(ContentUris.withAppendedId(mPetsUri, pending.id), pending.values,
+                        null, null);
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Update failed for pet " + pending.id + ": " + pending.values, e);
+            }
+            deliver(pending, rowsUpdated);
+        }
+    }
+
+    // post the result of a merged update to the callbacks of every update in it
+    private static void deliver(Pending pending, final int rowsUpdated) {
+        for (final PetRepository.WriteCallback callback : pending.callbacks) {
+            MAIN_HANDLER.post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onWriteComplete(rowsUpdated);
+                }
+            });
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// checks that an install upgraded from version 1 through every step of PetDbHelper.MIGRATIONS
+// ends up with the same schema as a new install, and keeps its pets on the way
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetDbHelperMigrationTest {
+
+    // the upgraded install, the name of the default shelter so it is opened like a real upgrade
+    private static final String UPGRADED_NAME =
+            PetDbHelper.databaseName(PetContract.ShelterEntry.DEFAULT_SHELTER_ID);
+
+    // the new install, any other shelter
+    private static final String CREATED_NAME = PetDbHelper.databaseName(2);
+
+    private Context mContext;
+
+    private final List<PetDbHelper> mHelpers = new ArrayList<PetDbHelper>();
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(UPGRADED_NAME);
+        mContext.deleteDatabase(CREATED_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        for (PetDbHelper helper : mHelpers) {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion1MatchesCreate() {
+
+        createVersion1(UPGRADED_NAME);
+
+        SQLiteDatabase upgraded = open(UPGRADED_NAME);
+        SQLiteDatabase created = open(CREATED_NAME);
+
+        assertEquals(PetDbHelper.DATABASE_VERSION, upgraded.getVersion());
+        assertEquals(PetDbHelper.DATABASE_VERSION, created.getVersion());
+        assertEquals(schema(created), schema(upgraded));
+    }
+
+    @Test
+    public void upgradeFromVersion1KeepsPets() {
+
+        createVersion1(UPGRADED_NAME);
+        SQLiteDatabase upgraded = open(UPGRADED_NAME);
+
+        Cursor cursor = upgraded.query(PetEntry.TABLE_NAME, new String[] {PetEntry.COLUMN_PETS_NAME},
+                PetDbHelper.NOT_DELETED, null, null, null, PetEntry._ID);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Tommy", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+
+        // pets that existed before the full-text index are found through it
+        cursor = upgraded.rawQuery("SELECT docid FROM " + PetDbHelper.FTS_TABLE_NAME + " WHERE " +
+                PetDbHelper.FTS_TABLE_NAME + " MATCH ?", new String[] {"terrier"});
+        try {
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void migrateRejectsUnknownVersions() {
+        PetDbHelper.migrate(open(CREATED_NAME), 1, PetDbHelper.DATABASE_VERSION + 1);
+    }
+
+    // write the original pets table with two pets, as the first release of the app left it
+    private void createVersion1(String name) {
+
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(mContext.getDatabasePath(name), null);
+        try {
+            db.execSQL("CREATE TABLE " + PetEntry.TABLE_NAME + " (" +
+                    PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    PetEntry.COLUMN_PETS_NAME + " TEXT NOT NULL, " +
+                    PetEntry.COLUMN_PETS_BREED + " TEXT, " +
+                    PetEntry.COLUMN_PETS_GENDER + " INTEGER NOT NULL, " +
+                    PetEntry.COLUMN_PETS_WEIGHT + " INTEGER NOT NULL DEFAULT 0);");
+            db.insert(PetEntry.TABLE_NAME, null, pet("Tommy", "Terrier", 7));
+            db.insert(PetEntry.TABLE_NAME, null, pet("Garfield", "Tabby", 14));
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+
+    // open the database through the helper, which creates or upgrades it
+    private SQLiteDatabase open(String name) {
+        PetDbHelper helper = new PetDbHelper(mContext, name, PetDbSettings.DEFAULT, null);
+        mHelpers.add(helper);
+        return helper.getWritableDatabase();
+    }
+
+    // every table, index, view and trigger with the statement that created it, in a stable order
+    private static List<String> schema(SQLiteDatabase db) {
+
+        Cursor cursor = db.rawQuery("SELECT type, name, tbl_name, sql FROM sqlite_master " +
+                "ORDER BY type, name", null);
+        try {
+            List<String> entries = new ArrayList<String>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                entries.add(cursor.getString(0) + " " + cursor.getString(1) + " ON " + cursor.getString(2) +
+                        ": " + cursor.getString(3));
+            }
+            return entries;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues pet(String name, String breed, int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PETS_NAME, name);
+        values.put(PetEntry.COLUMN_PETS_BREED, breed);
+        values.put(PetEntry.COLUMN_PETS_GENDER, PetEntry.GENDER_MALE);
+        values.put(PetEntry.COLUMN_PETS_WEIGHT, weight);
+        return values;
+    }
+
+}
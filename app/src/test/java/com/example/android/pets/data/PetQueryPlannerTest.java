@@ -0,0 +1,164 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+// checks that PetQueryPlanner returns the same rows as the single statement it stands in for,
+// with every condition of the pets query in one WHERE clause
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetQueryPlannerTest {
+
+    private static final String DATABASE_NAME = PetDbHelper.databaseName(2);
+
+    // more pets than one fetch chunk holds, so a result spans several chunks
+    private static final int PET_COUNT = 1200;
+
+    private static final String[] BREEDS = {"Labrador", "Terrier", "Tabby", "Siamese"};
+
+    private static final String[] COLUMNS = {PetEntry._ID, PetEntry.COLUMN_PETS_NAME, PetEntry.COLUMN_PETS_BREED,
+            PetEntry.COLUMN_PETS_GENDER, PetEntry.COLUMN_PETS_WEIGHT};
+
+    private PetDbHelper mHelper;
+
+    private SQLiteDatabase mDatabase;
+
+    private PetQueryPlanner mPlanner;
+
+    @Before
+    public void setUp() {
+        RuntimeEnvironment.application.deleteDatabase(DATABASE_NAME);
+        mHelper = new PetDbHelper(RuntimeEnvironment.application, DATABASE_NAME, PetDbSettings.DEFAULT, null);
+        mDatabase = mHelper.getWritableDatabase();
+        mPlanner = new PetQueryPlanner(PetQueryPlanner.DEFAULT_THREADS);
+
+        // every combination of gender, weight and breed, with every seventh pet deleted
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < PET_COUNT; i++) {
+                ContentValues values = new ContentValues();
+                values.put(PetEntry.COLUMN_PETS_NAME, "Pet " + i);
+                values.put(PetEntry.COLUMN_PETS_BREED, BREEDS[i % BREEDS.length]);
+                values.put(PetEntry.COLUMN_PETS_GENDER, i % 3);
+                values.put(PetEntry.COLUMN_PETS_WEIGHT, i % 40);
+                values.put(PetEntry.COLUMN_PETS_UUID, PetDbHelper.newPetUuid());
+                values.put(PetDbHelper.COLUMN_DELETED, i % 7 == 0 ? 1 : 0);
+                mDatabase.insertOrThrow(PetEntry.TABLE_NAME, null, values);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mPlanner.quit();
+        mHelper.close();
+    }
+
+    @Test
+    public void genderWeightAndBreed() {
+        assertSameRows(conditions(
+                condition(PetEntry.COLUMN_PETS_GENDER + "=? AND " + PetEntry.COLUMN_PETS_WEIGHT + ">=? AND " +
+                        PetEntry.COLUMN_PETS_WEIGHT + "<=?", "1", "10", "30"),
+                condition(PetEntry.COLUMN_PETS_BREED + "=?", "Terrier")), -1, -1);
+    }
+
+    @Test
+    public void breedAndText() {
+        assertSameRows(conditions(
+                condition(PetEntry.COLUMN_PETS_BREED + "=?", "Labrador"),
+                condition(PetEntry._ID + " IN (SELECT docid FROM " + PetDbHelper.FTS_TABLE_NAME + " WHERE " +
+                        PetDbHelper.FTS_TABLE_NAME + " MATCH ?)", "lab*")), -1, -1);
+    }
+
+    @Test
+    public void conditionsMatchingNothing() {
+        assertSameRows(conditions(
+                condition(PetEntry.COLUMN_PETS_GENDER + "=?", "0"),
+                condition("0")), -1, -1);
+    }
+
+    @Test
+    public void pages() {
+        List<String[]> conditions = conditions(
+                condition(PetEntry.COLUMN_PETS_WEIGHT + ">=?", "5"),
+                condition(PetEntry.COLUMN_PETS_BREED + "=?", "Tabby"));
+
+        assertSameRows(conditions, -1, 50);
+        assertSameRows(conditions, 600, 50);
+        assertSameRows(conditions, 0, 700);
+        assertSameRows(conditions, PET_COUNT, 50);
+    }
+
+    // run the conditions through the planner and as one statement, and check both give the same rows
+    private void assertSameRows(List<String[]> conditions, long afterId, long limit) {
+
+        List<List<Object>> planned = rows(mPlanner.query(mDatabase, conditions, COLUMNS, afterId, limit));
+
+        StringBuilder where = new StringBuilder(PetDbHelper.NOT_DELETED);
+        List<String> args = new ArrayList<String>();
+        for (String[] condition : conditions) {
+            where.append(" AND (").append(condition[0]).append(")");
+            args.addAll(Arrays.asList(condition).subList(1, condition.length));
+        }
+        if (afterId >= 0) {
+            where.append(" AND ").append(PetEntry._ID).append(">?");
+            args.add(String.valueOf(afterId));
+        }
+        List<List<Object>> expected = rows(mDatabase.query(PetEntry.TABLE_NAME, COLUMNS, where.toString(),
+                args.toArray(new String[args.size()]), null, null, PetEntry._ID + " ASC",
+                limit < 0 ? null : String.valueOf(limit)));
+
+        assertEquals(expected, planned);
+    }
+
+    // every row of the cursor as a list of its values, closing the cursor
+    private static List<List<Object>> rows(Cursor cursor) {
+        try {
+            assertEquals(TextUtils.join(",", COLUMNS), TextUtils.join(",", cursor.getColumnNames()));
+            List<List<Object>> rows = new ArrayList<List<Object>>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                List<Object> row = new ArrayList<Object>(COLUMNS.length);
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    row.add(cursor.getString(i));
+                }
+                rows.add(row);
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static List<String[]> conditions(String[]... conditions) {
+        return Arrays.asList(conditions);
+    }
+
+    private static String[] condition(String clause, String... args) {
+        String[] condition = new String[args.length + 1];
+        condition[0] = clause;
+        System.arraycopy(args, 0, condition, 1, args.length);
+        return condition;
+    }
+
+}
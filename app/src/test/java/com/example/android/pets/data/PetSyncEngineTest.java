@@ -0,0 +1,260 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// drives the push and pull loop of two PetSyncEngines against one LocalPetSyncServer
+// each device is played by a shelter of its own, so both have their own database, _IDs and change log
+// and hand out the same _IDs to different pets, which sync must never mix up
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetSyncEngineTest {
+
+    private static final long DEVICE_A = 1;
+    private static final long DEVICE_B = 2;
+
+    private PetProvider mProvider;
+
+    private ContentResolver mResolver;
+
+    private LocalPetSyncServer mServer;
+
+    @Before
+    public void setUp() {
+        RuntimeEnvironment.application.deleteDatabase(PetDbHelper.databaseName(DEVICE_A));
+        RuntimeEnvironment.application.deleteDatabase(PetDbHelper.databaseName(DEVICE_B));
+        mProvider = Robolectric.buildContentProvider(PetProvider.class).create(PetContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mServer = new LocalPetSyncServer();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void petsWithTheSameIdOnTwoDevicesStayDistinct() throws Exception {
+
+        PetSyncEngine engineA = engine(DEVICE_A, PetSyncEngine.SERVER_WINS);
+        PetSyncEngine engineB = engine(DEVICE_B, PetSyncEngine.SERVER_WINS);
+
+        // both devices hand out _ID 1 to a pet of their own
+        long rexOnA = insert(DEVICE_A, "Rex", 10);
+        long tomOnB = insert(DEVICE_B, "Tom", 4);
+        assertEquals(rexOnA, tomOnB);
+
+        engineA.sync(new SyncResult());
+        engineB.sync(new SyncResult());
+        engineA.sync(new SyncResult());
+
+        Map<String, PetRow> petsA = pets(DEVICE_A);
+        Map<String, PetRow> petsB = pets(DEVICE_B);
+
+        // each device keeps its own pet under its own _ID and adds the other one under a new _ID
+        assertEquals(2, petsA.size());
+        assertEquals(2, petsB.size());
+        assertEquals(rexOnA, petsA.get("Rex").id);
+        assertEquals(tomOnB, petsB.get("Tom").id);
+        assertTrue(petsA.get("Tom").id != rexOnA);
+        assertTrue(petsB.get("Rex").id != tomOnB);
+
+        // a pet has the same uuid everywhere, and two pets never share one
+        assertEquals(petsA.get("Rex").uuid, petsB.get("Rex").uuid);
+        assertEquals(petsA.get("Tom").uuid, petsB.get("Tom").uuid);
+        assertFalse(petsA.get("Rex").uuid.equals(petsA.get("Tom").uuid));
+
+        // nothing pulled is pushed back
+        assertEquals(2, mServer.getLog().size());
+    }
+
+    @Test
+    public void updatesAndDeletesReachThePetWithTheSameUuid() throws Exception {
+
+        PetSyncEngine engineA = engine(DEVICE_A, PetSyncEngine.SERVER_WINS);
+        PetSyncEngine engineB = engine(DEVICE_B, PetSyncEngine.SERVER_WINS);
+
+        long rexOnA = insert(DEVICE_A, "Rex", 10);
+        long tomOnB = insert(DEVICE_B, "Tom", 4);
+        syncBoth(engineA, engineB);
+
+        // B changes Rex through its own _ID for it, which on A is the _ID of Tom
+        long rexOnB = pets(DEVICE_B).get("Rex").id;
+        assertEquals(1, mResolver.update(petUri(DEVICE_B, rexOnB), weight(12), null, null));
+
+        // A deletes Tom through its own _ID for him, which on B is the _ID of Tom as well only by chance
+        long tomOnA = pets(DEVICE_A).get("Tom").id;
+        assertEquals(1, mResolver.delete(petUri(DEVICE_A, tomOnA), null, null));
+
+        syncBoth(engineA, engineB);
+
+        Map<String, PetRow> petsA = pets(DEVICE_A);
+        Map<String, PetRow> petsB = pets(DEVICE_B);
+
+        assertEquals(1, petsA.size());
+        assertEquals(1, petsB.size());
+        assertEquals(rexOnA, petsA.get("Rex").id);
+        assertEquals(12, petsA.get("Rex").weight);
+        assertEquals(12, petsB.get("Rex").weight);
+        assertFalse(petsB.containsKey("Tom"));
+        assertEquals(rexOnB, petsB.get("Rex").id);
+        assertTrue(tomOnB != rexOnB);
+    }
+
+    @Test
+    public void conflictingChangesAreResolvedByUuid() throws Exception {
+
+        PetSyncEngine engineA = engine(DEVICE_A, PetSyncEngine.SERVER_WINS);
+        PetSyncEngine engineB = engine(DEVICE_B, PetSyncEngine.SERVER_WINS);
+
+        long rexOnA = insert(DEVICE_A, "Rex", 10);
+        insert(DEVICE_B, "Tom", 4);
+        syncBoth(engineA, engineB);
+
+        // both devices change Rex before either syncs, and B also changes Tom, which has Rex's _ID on A
+        long rexOnB = pets(DEVICE_B).get("Rex").id;
+        long tomOnB = pets(DEVICE_B).get("Tom").id;
+        mResolver.update(petUri(DEVICE_A, rexOnA), weight(11), null, null);
+        mResolver.update(petUri(DEVICE_B, rexOnB), weight(15), null, null);
+        mResolver.update(petUri(DEVICE_B, tomOnB), weight(6), null, null);
+
+        // A pushes first, so B finds its change of Rex in conflict, and only that one
+        engineA.sync(new SyncResult());
+        SyncResult result = new SyncResult();
+        engineB.sync(result);
+        engineA.sync(new SyncResult());
+
+        assertEquals(1, result.stats.numConflictDetectedExceptions);
+        assertEquals(11, pets(DEVICE_A).get("Rex").weight);
+        assertEquals(11, pets(DEVICE_B).get("Rex").weight);
+        assertEquals(6, pets(DEVICE_A).get("Tom").weight);
+        assertEquals(6, pets(DEVICE_B).get("Tom").weight);
+    }
+
+    @Test
+    public void interruptedSyncPicksUpWhereItStopped() throws Exception {
+
+        PetSyncEngine engineA = engine(DEVICE_A, PetSyncEngine.SERVER_WINS);
+        PetSyncEngine engineB = engine(DEVICE_B, PetSyncEngine.SERVER_WINS);
+
+        for (int i = 0; i < 5; i++) {
+            insert(DEVICE_A, "Pet " + i, i);
+        }
+
+        mServer.setFailing(true);
+        try {
+            engineA.sync(new SyncResult());
+            fail("Sync succeeded while the server was failing");
+        } catch (IOException expected) {
+            // nothing was pushed and the change log is kept
+        }
+        mServer.setFailing(false);
+
+        syncBoth(engineA, engineB);
+
+        assertEquals(5, mServer.getLog().size());
+        assertEquals(pets(DEVICE_A).keySet(), pets(DEVICE_B).keySet());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void uuidCannotBeUpdated() {
+
+        insert(DEVICE_A, "Rex", 10);
+
+        // the table URI takes the same writable columns as the URI of a single pet
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PETS_UUID, "0123456789abcdef0123456789abcdef");
+        mResolver.update(ShelterEntry.scope(DEVICE_A, PetEntry.CONTENT_URI), values, null, null);
+    }
+
+    // an engine for the given device with a batch size small enough to page
+    private PetSyncEngine engine(long device, PetSyncEngine.ConflictResolver conflictResolver) {
+        return new PetSyncEngine(RuntimeEnvironment.application, device, mServer, 2, conflictResolver);
+    }
+
+    // push and pull both devices until each has the changes of the other
+    private static void syncBoth(PetSyncEngine engineA, PetSyncEngine engineB) throws Exception {
+        engineA.sync(new SyncResult());
+        engineB.sync(new SyncResult());
+        engineA.sync(new SyncResult());
+    }
+
+    // insert a pet on the given device and return its _ID there
+    private long insert(long device, String name, int weight) {
+        ContentValues values = weight(weight);
+        values.put(PetEntry.COLUMN_PETS_NAME, name);
+        values.put(PetEntry.COLUMN_PETS_GENDER, PetEntry.GENDER_UNKNOWN);
+        Uri uri = mResolver.insert(ShelterEntry.scope(device, PetEntry.CONTENT_URI), values);
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    // the pets of the given device by name
+    private Map<String, PetRow> pets(long device) {
+
+        Cursor cursor = mResolver.query(ShelterEntry.scope(device, PetEntry.CONTENT_URI),
+                new String[] {PetEntry._ID, PetEntry.COLUMN_PETS_NAME, PetEntry.COLUMN_PETS_WEIGHT,
+                        PetEntry.COLUMN_PETS_UUID}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            Map<String, PetRow> pets = new HashMap<String, PetRow>();
+            while (cursor.moveToNext()) {
+                pets.put(cursor.getString(1), new PetRow(cursor.getLong(0), cursor.getInt(2), cursor.getString(3)));
+            }
+            return pets;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Uri petUri(long device, long id) {
+        return ShelterEntry.scope(device, ContentUris.withAppendedId(PetEntry.CONTENT_URI, id));
+    }
+
+    private static ContentValues weight(int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PETS_WEIGHT, weight);
+        return values;
+    }
+
+    // the columns of a pet the tests look at
+    private static final class PetRow {
+
+        final long id;
+        final int weight;
+        final String uuid;
+
+        PetRow(long id, int weight, String uuid) {
+            this.id = id;
+            this.weight = weight;
+            this.uuid = uuid;
+        }
+    }
+
+}
@@ -0,0 +1,312 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+// drives PetWriteBehindQueue against PetProvider
+// the clock of SystemClock only moves when a test moves it, so a batch is never written by its delay
+// unless the test says so, and the writes of the queue thread are awaited in real time
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetWriteBehindQueueTest {
+
+    // a delay the clock only reaches when a test moves it there
+    private static final long DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    // timeout of an offer, a small part of the delay
+    private static final long OFFER_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    // real time a test waits for the queue thread before it fails
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    // real time a test gives the queue thread to do what it must not do
+    private static final long SETTLE_MILLIS = 100;
+
+    private PetProvider mProvider;
+
+    private ContentResolver mResolver;
+
+    private PetWriteBehindQueue mQueue;
+
+    // results delivered to the callbacks of the queued updates, in the order they arrived
+    private final List<Integer> mResults = Collections.synchronizedList(new ArrayList<Integer>());
+
+    private final PetRepository.WriteCallback mCallback = new PetRepository.WriteCallback() {
+        @Override
+        public void onWriteComplete(int rowsAffected) {
+            mResults.add(rowsAffected);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        RuntimeEnvironment.application.deleteDatabase(
+                PetDbHelper.databaseName(PetContract.ShelterEntry.DEFAULT_SHELTER_ID));
+        mProvider = Robolectric.buildContentProvider(PetProvider.class).create(PetContract.CONTENT_AUTHORITY).get();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mQueue != null) {
+            mQueue.close();
+        }
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void updatesOfOnePetAreMerged() throws Exception {
+
+        mQueue = queue(10, 10);
+        long id = insert("Rex");
+
+        mQueue.update(id, weight(1), mCallback);
+        mQueue.update(id, weight(2), mCallback);
+        ContentValues name = new ContentValues();
+        name.put(PetEntry.COLUMN_PETS_NAME, "Max");
+        mQueue.update(id, name, mCallback);
+        mQueue.update(id, weight(3), mCallback);
+        assertEquals(1, mQueue.pendingCount());
+
+        mQueue.flush();
+        Robolectric.flushForegroundThreadScheduler();
+
+        // later values win, earlier values of other columns are kept, and every update hears of the write
+        assertEquals(3, weightOf(id));
+        assertEquals("Max", nameOf(id));
+        assertEquals(4, mResults.size());
+        for (int result : mResults) {
+            assertEquals(1, result);
+        }
+    }
+
+    @Test
+    public void fullBatchIsWrittenWithoutWaitingForTheDelay() throws Exception {
+
+        mQueue = queue(10, 3);
+        long first = insert("Rex");
+        long second = insert("Tom");
+        long third = insert("Max");
+
+        mQueue.update(first, weight(5), mCallback);
+        mQueue.update(second, weight(6), mCallback);
+        Thread.sleep(SETTLE_MILLIS);
+        assertEquals(2, mQueue.pendingCount());
+        assertEquals(0, weightOf(first));
+
+        // the third pet fills the batch
+        mQueue.update(third, weight(7), mCallback);
+        awaitWeight(third, 7);
+        assertEquals(5, weightOf(first));
+        assertEquals(6, weightOf(second));
+    }
+
+    @Test
+    public void partialBatchIsWrittenOnceTheDelayPassed() throws Exception {
+
+        mQueue = queue(10, 10);
+        long id = insert("Rex");
+
+        mQueue.update(id, weight(5), mCallback);
+        Thread.sleep(SETTLE_MILLIS);
+        assertEquals(1, mQueue.pendingCount());
+        assertEquals(0, weightOf(id));
+
+        SystemClock.sleep(DELAY_MILLIS);
+        awaitWeight(id, 5);
+    }
+
+    @Test
+    public void fullQueueMakesCallersWait() throws Exception {
+
+        mQueue = queue(2, 10);
+        long first = insert("Rex");
+        long second = insert("Tom");
+        final long third = insert("Max");
+
+        mQueue.update(first, weight(5), mCallback);
+        mQueue.update(second, weight(6), mCallback);
+
+        // an update of a queued pet merges and takes no room
+        assertTrue(mQueue.offer(first, weight(8), mCallback, 0, TimeUnit.MILLISECONDS));
+
+        // another pet waits for room until the timeout passes on the clock, long before the batch is due
+        Thread clock = moveClockUntilInterrupted(OFFER_TIMEOUT_MILLIS);
+        try {
+            assertFalse(mQueue.offer(third, weight(7), mCallback, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        } finally {
+            clock.interrupt();
+            clock.join();
+        }
+        assertEquals(2, mQueue.pendingCount());
+
+        // update waits for as long as it takes, here until the flush below makes room
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread caller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mQueue.update(third, weight(7), mCallback);
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }
+        });
+        caller.start();
+        Thread.sleep(SETTLE_MILLIS);
+        assertTrue(caller.isAlive());
+
+        mQueue.flush();
+        caller.join(TIMEOUT_MILLIS);
+        assertFalse(caller.isAlive());
+        assertTrue(failures.isEmpty());
+
+        mQueue.flush();
+        assertEquals(8, weightOf(first));
+        assertEquals(6, weightOf(second));
+        assertEquals(7, weightOf(third));
+    }
+
+    @Test
+    public void failedBatchIsWrittenOneByOne() throws Exception {
+
+        mQueue = queue(10, 10);
+        long first = insert("Rex");
+        long second = insert("Tom");
+        long third = insert("Max");
+
+        // the invalid weight fails the transaction of the whole batch
+        mQueue.update(first, weight(5), mCallback);
+        mQueue.update(second, weight(-1), mCallback);
+        mQueue.update(third, weight(7), mCallback);
+
+        mQueue.flush();
+        Robolectric.flushForegroundThreadScheduler();
+
+        // only the invalid update fails, the others are written on their own
+        assertEquals(5, weightOf(first));
+        assertEquals(0, weightOf(second));
+        assertEquals(7, weightOf(third));
+        assertEquals(3, mResults.size());
+        assertEquals(Integer.valueOf(1), mResults.get(0));
+        assertEquals(Integer.valueOf(0), mResults.get(1));
+        assertEquals(Integer.valueOf(1), mResults.get(2));
+    }
+
+    @Test
+    public void flushWaitsForEveryEarlierUpdate() throws Exception {
+
+        mQueue = queue(100, 10);
+        long[] ids = new long[35];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = insert("Pet " + i);
+            mQueue.update(ids[i], weight(i + 1), mCallback);
+        }
+
+        // the batches beyond the first are due only because of the flush, and all are written when it returns
+        mQueue.flush();
+        assertEquals(0, mQueue.pendingCount());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(i + 1, weightOf(ids[i]));
+        }
+
+        Robolectric.flushForegroundThreadScheduler();
+        assertEquals(ids.length, mResults.size());
+    }
+
+    // a queue for the default shelter that only writes by delay once a test moves the clock
+    private PetWriteBehindQueue queue(int maxPending, int batchSize) {
+        return new PetWriteBehindQueue(RuntimeEnvironment.application, PetEntry.CONTENT_URI, maxPending, batchSize,
+                DELAY_MILLIS);
+    }
+
+    // a thread moving the clock by the given step again and again, so waits on it time out
+    private static Thread moveClockUntilInterrupted(final long stepMillis) {
+        Thread clock = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Thread.sleep(SETTLE_MILLIS / 2);
+                        SystemClock.sleep(stepMillis);
+                    }
+                } catch (InterruptedException e) {
+                    // the test is done waiting
+                }
+            }
+        });
+        clock.start();
+        return clock;
+    }
+
+    // wait in real time until the queue thread has written the weight
+    private void awaitWeight(long id, int weight) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (weightOf(id) != weight) {
+            assertTrue("Weight " + weight + " never written", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    // insert a pet with no weight and return its _ID
+    private long insert(String name) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PETS_NAME, name);
+        values.put(PetEntry.COLUMN_PETS_GENDER, PetEntry.GENDER_UNKNOWN);
+        Uri uri = mResolver.insert(PetEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    private int weightOf(long id) {
+        return Integer.parseInt(columnOf(id, PetEntry.COLUMN_PETS_WEIGHT));
+    }
+
+    private String nameOf(long id) {
+        return columnOf(id, PetEntry.COLUMN_PETS_NAME);
+    }
+
+    private String columnOf(long id, String column) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                new String[] {column}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues weight(int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PETS_WEIGHT, weight);
+        return values;
+    }
+
+}
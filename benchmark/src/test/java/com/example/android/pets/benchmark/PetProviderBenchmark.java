@@ -0,0 +1,299 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetProvider;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+// measures the PetProvider CRUD paths at several table sizes on the JVM
+// robolectric runs the provider against a real in-process sqlite, every benchmark is warmed up and then
+// timed over several runs, each result is appended as one JSON object per line to the file named by the
+// benchmark.resultsFile system property
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetProviderBenchmark {
+
+    // table sizes, from the benchmark.sizes system property, by default the same as the benchmark task
+    private static final int[] SIZES = parseSizes(System.getProperty("benchmark.sizes", "1000,100000,1000000"));
+
+    // untimed runs before the measured ones, so the JIT has compiled the paths and sqlite has opened its files
+    private static final int WARM_UP_RUNS = 3;
+
+    // measured runs per benchmark and size, reported as their median, minimum and maximum
+    private static final int MEASURED_RUNS = 5;
+
+    // warm-up runs that need a table of their own fill at most this many rows, they only need to run the
+    // same code as the measured runs and would otherwise take as long as them
+    private static final int WARM_UP_ROWS = 10000;
+
+    // single inserts each commit their own transaction, so they are measured on at most this many rows
+    private static final int SINGLE_INSERT_LIMIT = 10000;
+
+    // rows passed to each bulkInsert call when filling a table
+    private static final int BULK_CHUNK = 10000;
+
+    // point lookups per run
+    private static final int LOOKUPS = 10000;
+
+    // fixed seed so every run looks up the same ids
+    private static final long SEED = 42;
+
+    // provider under test, recreated on an empty database whenever a run needs a table of its own
+    private PetProvider mProvider;
+
+    // one run of a benchmark on a table of the given size, returns the nanoseconds of its timed part
+    // any setup, such as filling the table, happens before the timer starts
+    private interface Run {
+        long run(int size);
+    }
+
+    @After
+    public void tearDown() {
+        closeProvider();
+    }
+
+    // one insert call per row, each with its own transaction and notification
+    @Test
+    public void singleInsert() throws IOException {
+        for (int size : SIZES) {
+            measure("singleInsert", size, Math.min(size, SINGLE_INSERT_LIMIT), WARM_UP_ROWS, new Run() {
+                @Override
+                public long run(int size) {
+                    openEmptyProvider();
+
+                    int operations = Math.min(size, SINGLE_INSERT_LIMIT);
+                    long start = System.nanoTime();
+                    for (int i = 0; i < operations; i++) {
+                        mProvider.insert(PetEntry.CONTENT_URI, pet(i));
+                    }
+                    return System.nanoTime() - start;
+                }
+            });
+        }
+    }
+
+    // bulkInsert calls of BULK_CHUNK rows, each a single transaction
+    @Test
+    public void bulkInsert() throws IOException {
+        for (int size : SIZES) {
+            measure("bulkInsert", size, size, WARM_UP_ROWS, new Run() {
+                @Override
+                public long run(int size) {
+                    openEmptyProvider();
+
+                    long start = System.nanoTime();
+                    fill(size);
+                    return System.nanoTime() - start;
+                }
+            });
+        }
+    }
+
+    // random rows read through the PET_ID URI, every run on the same table
+    @Test
+    public void pointLookup() throws IOException {
+        for (int size : SIZES) {
+            openEmptyProvider();
+            fill(size);
+
+            // ids start at 1 on an empty AUTOINCREMENT table
+            final Random random = new Random(SEED);
+            measure("pointLookup", size, LOOKUPS, size, new Run() {
+                @Override
+                public long run(int size) {
+                    long start = System.nanoTime();
+                    lookup(random, size, LOOKUPS);
+                    return System.nanoTime() - start;
+                }
+            });
+        }
+    }
+
+    // every row of the table read through the PETS URI, every run on the same table
+    @Test
+    public void fullScan() throws IOException {
+        for (int size : SIZES) {
+            openEmptyProvider();
+            fill(size);
+
+            measure("fullScan", size, size, size, new Run() {
+                @Override
+                public long run(int size) {
+                    long start = System.nanoTime();
+                    Cursor cursor = mProvider.query(PetEntry.CONTENT_URI, null, null, null, null);
+                    int rows = 0;
+                    try {
+                        int nameIndex = cursor.getColumnIndex(PetEntry.COLUMN_PETS_NAME);
+                        int weightIndex = cursor.getColumnIndex(PetEntry.COLUMN_PETS_WEIGHT);
+                        while (cursor.moveToNext()) {
+                            cursor.getString(nameIndex);
+                            cursor.getInt(weightIndex);
+                            rows++;
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                    long elapsed = System.nanoTime() - start;
+
+                    assertEquals(size, rows);
+                    return elapsed;
+                }
+            });
+        }
+    }
+
+    // a single delete through the PETS URI
+    @Test
+    public void deleteAll() throws IOException {
+        for (int size : SIZES) {
+            measure("deleteAll", size, 1, WARM_UP_ROWS, new Run() {
+                @Override
+                public long run(int size) {
+                    openEmptyProvider();
+                    fill(size);
+
+                    long start = System.nanoTime();
+                    int rows = mProvider.delete(PetEntry.CONTENT_URI, null, null);
+                    long elapsed = System.nanoTime() - start;
+
+                    assertEquals(size, rows);
+                    return elapsed;
+                }
+            });
+        }
+    }
+
+    // warm up a benchmark on tables of at most warmUpSize rows, then time MEASURED_RUNS runs at the given
+    // size and report them, operations is the number of operations of one measured run
+    private static void measure(String benchmark, int size, int operations, int warmUpSize, Run run)
+            throws IOException {
+
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            run.run(Math.min(size, warmUpSize));
+        }
+
+        long[] samples = new long[MEASURED_RUNS];
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            samples[i] = run.run(size);
+        }
+
+        report(benchmark, size, operations, samples);
+    }
+
+    // drop the previous database and create the provider on a new one
+    private void openEmptyProvider() {
+        closeProvider();
+        RuntimeEnvironment.application.deleteDatabase("shelter.db");
+        mProvider = Robolectric.buildContentProvider(PetProvider.class).create().get();
+    }
+
+    private void closeProvider() {
+        if (mProvider != null) {
+            mProvider.shutdown();
+            mProvider = null;
+        }
+    }
+
+    // insert size rows through bulkInsert
+    private void fill(int size) {
+        int inserted = 0;
+        while (inserted < size) {
+            ContentValues[] chunk = new ContentValues[Math.min(BULK_CHUNK, size - inserted)];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = pet(inserted + i);
+            }
+            inserted += mProvider.bulkInsert(PetEntry.CONTENT_URI, chunk);
+        }
+    }
+
+    // query count random ids between 1 and size
+    private void lookup(Random random, int size, int count) {
+        for (int i = 0; i < count; i++) {
+            long id = 1 + random.nextInt(size);
+            Cursor cursor = mProvider.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                    null, null, null, null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    // deterministic values for the pet with the given sequence number
+    private static ContentValues pet(int i) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PETS_NAME, "Pet " + i);
+        values.put(PetEntry.COLUMN_PETS_BREED, "Breed " + (i % 100));
+        values.put(PetEntry.COLUMN_PETS_GENDER, i % 3);
+        values.put(PetEntry.COLUMN_PETS_WEIGHT, i % 80);
+        return values;
+    }
+
+    // append one result to the results file and echo it to the console
+    // the median stands for the run, the minimum and maximum show how much the runs spread around it
+    private static void report(String benchmark, int rows, int operations, long[] samples) throws IOException {
+
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        long median = sorted.length % 2 == 1 ? sorted[sorted.length / 2] :
+                (sorted[sorted.length / 2 - 1] + sorted[sorted.length / 2]) / 2;
+
+        String line = "{\"benchmark\":\"" + benchmark + "\"" +
+                ",\"rows\":" + rows +
+                ",\"operations\":" + operations +
+                ",\"runs\":" + sorted.length +
+                ",\"medianNanos\":" + median +
+                ",\"minNanos\":" + sorted[0] +
+                ",\"maxNanos\":" + sorted[sorted.length - 1] +
+                ",\"spreadPercent\":" + (median == 0 ? 0 : (sorted[sorted.length - 1] - sorted[0]) * 100 / median) +
+                ",\"nanosPerOperation\":" + (median / Math.max(1, operations)) + "}";
+
+        System.out.println(line);
+
+        String resultsFile = System.getProperty("benchmark.resultsFile");
+        if (resultsFile == null) {
+            return;
+        }
+
+        Writer writer = new FileWriter(resultsFile, true);
+        try {
+            writer.write(line);
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    // comma separated list of positive table sizes
+    private static int[] parseSizes(String sizes) {
+        String[] parts = sizes.split(",");
+        int[] parsed = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            parsed[i] = Integer.parseInt(parts[i].trim());
+            if (parsed[i] <= 0) {
+                throw new IllegalArgumentException("Benchmark size must be positive: " + parts[i]);
+            }
+        }
+        return parsed;
+    }
+
+}